@@ -0,0 +1,142 @@
+package com.example.android.decorsinventory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.ContextThemeWrapper;
+import android.widget.ImageView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that {@link DecorAdapter#onBindViewHolder} doesn't allocate once the list scrolls
+ * steadily, i.e. the holders are bound again and again to decors whose thumbnails are already
+ * decoded in the image cache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorAdapterBindTest {
+
+    private static final int ROW_COUNT = 50;
+
+    /**
+     * Number of holders, like the ones recycled by a list showing a few items at a time
+     */
+    private static final int HOLDER_COUNT = 8;
+
+    /**
+     * Number of binds the allocations are measured over
+     */
+    private static final int BIND_COUNT = 10000;
+
+    /**
+     * Allocations tolerated over all binds, like the framework's lazily created objects. One
+     * allocation per bind would make as many as there are binds.
+     */
+    private static final int MAX_ALLOCATIONS = 10;
+
+    private Context mContext;
+    private DecorSaleQueue mSaleQueue;
+    private DecorAdapter mAdapter;
+    private final List<DecorAdapter.DecorViewHolder> mHolders = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mContext = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSaleQueue = new DecorSaleQueue(mContext);
+                mAdapter = new DecorAdapter(mContext, mSaleQueue, new DecorAdapter.OnDecorClickListener() {
+                    @Override
+                    public void onDecorClick(long decorId) {
+                    }
+                });
+
+                RecyclerView parent = new RecyclerView(mContext);
+                parent.setLayoutManager(new LinearLayoutManager(mContext));
+                for (int i = 0; i < HOLDER_COUNT; i++) {
+                    mHolders.add(mAdapter.onCreateViewHolder(parent, 0));
+                }
+
+                // Every tenth decor is free and has no thumbnail, the thumbnails of the others
+                // are in memory like after they were shown once
+                DecorImageCache cache = DecorImageCache.getInstance(mContext);
+                DecorImageLoader loader = new DecorImageLoader(mContext);
+                ImageView view = mHolders.get(0).thumbnailImageView;
+                Bitmap thumbnail = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+                List<DecorRow> rows = new ArrayList<>();
+                for (int i = 0; i < ROW_COUNT; i++) {
+                    String hash = i % 10 == 0 ? null : String.format(Locale.US, "%064x", i);
+                    DecorRow row = new DecorRow(i + 1, "Decor " + i, i % 10 == 0 ? 0 : 1234.5 + i * 0.37, i * 3, hash);
+                    if (hash != null) {
+                        String variant = DecorImageCache.VARIANT_THUMBNAIL;
+                        cache.put(row.id, variant, hash, DecorImageCache.buildKey(row.id, variant, hash,
+                                loader.getTargetWidth(view), loader.getTargetHeight(view)), thumbnail, false);
+                    }
+                    rows.add(row);
+                }
+                loader.destroy();
+                mAdapter.submitRows(rows);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.release();
+                mSaleQueue.quit();
+                DecorImageCache.getInstance(mContext).trimMemory();
+            }
+        });
+    }
+
+    @Test
+    public void bindsWithoutAllocating() {
+        // Before Lollipop, ImageView wraps every bitmap set on it in a new drawable
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Warm up, so every holder shows a decor and the measured loop runs compiled code
+                bindAll();
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                try {
+                    bindAll();
+                } finally {
+                    Debug.stopAllocCounting();
+                }
+                allocations[0] = Debug.getThreadAllocCount();
+            }
+        });
+
+        assertTrue("Binding allocated " + allocations[0] + " objects in " + BIND_COUNT + " binds",
+                allocations[0] <= MAX_ALLOCATIONS);
+    }
+
+    private void bindAll() {
+        for (int i = 0; i < BIND_COUNT; i++) {
+            mAdapter.onBindViewHolder(mHolders.get(i % HOLDER_COUNT), i % ROW_COUNT);
+        }
+    }
+}
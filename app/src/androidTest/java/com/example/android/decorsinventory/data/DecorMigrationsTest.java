@@ -0,0 +1,527 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorAggregateEntry;
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+import com.example.android.decorsinventory.data.DecorContract.DecorLowStockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs every upgrade step of {@link DecorMigrations} against a real database file, starting
+ * from the schema of version 1.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorMigrationsTest {
+
+    /**
+     * Schema of the decors table in database version 1
+     */
+    private static final String SQL_CREATE_VERSION_1 = "CREATE TABLE decors (" +
+            "_id INTEGER PRIMARY KEY, name TEXT NOT NULL, description TEXT, " +
+            "material INTEGER NOT NULL, height INTEGER, price REAL NOT NULL DEFAULT 0, " +
+            "quantity INTEGER NOT NULL DEFAULT 0, supplier_name TEXT, supplier_email TEXT, " +
+            "image BLOB);";
+
+    private Context mContext;
+    private File mDatabaseFile;
+    private DecorImageStore mImageStore;
+
+    @Before
+    public void setUp() {
+        mContext = TestDecorProviders.isolatedContext("migrations_test.");
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mDatabaseFile = mContext.getDatabasePath(DecorDbHelper.DATABASE_NAME);
+        mDatabaseFile.getParentFile().mkdirs();
+        mImageStore = new DecorImageStore(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void migrationTo2AddsImageHashAndSchedulesImageMove() {
+        SQLiteDatabase db = createVersion1Database(3);
+        try {
+            migrateTo(db, 2);
+
+            assertTrue(hasColumn(db, DecorEntry.COLUMN_DECOR_IMAGE_HASH));
+            assertEquals(3, DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME));
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, DecorMigrations.BACKGROUND_MIGRATIONS_TABLE,
+                    DecorMigrations.COLUMN_NAME + "=?", new String[]{DecorMigrations.MOVE_IMAGES_TO_STORE}));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void migrationTo3AddsThumbnailHash() {
+        SQLiteDatabase db = createVersion1Database(3);
+        try {
+            migrateTo(db, 3);
+
+            assertTrue(hasColumn(db, DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH));
+            assertEquals(3, DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void migrationTo4CreatesMissingBackgroundMigrationsTable() {
+        SQLiteDatabase db = createVersion1Database(3);
+        try {
+            migrateTo(db, 3);
+            // Databases upgraded to version 2 before the image move was left to the background
+            db.execSQL("DROP TABLE " + DecorMigrations.BACKGROUND_MIGRATIONS_TABLE);
+
+            migrateTo(db, 4);
+
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, DecorMigrations.BACKGROUND_MIGRATIONS_TABLE));
+            assertEquals(3, DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void migrationTo5IndexesExistingDecorsForSearch() {
+        SQLiteDatabase db = createVersion1Database(3);
+        try {
+            migrateTo(db, 5);
+            // Decors changed before the background indexing reaches them are indexed by the triggers
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_NAME +
+                    "='Lantern' WHERE " + DecorEntry._ID + "=2");
+            assertEquals(1, countSearchMatches(db, "Lantern"));
+            assertEquals(0, countSearchMatches(db, "name:Decor"));
+
+            runBackgroundMigrations(db);
+
+            assertEquals(1, countSearchMatches(db, "Lantern"));
+            assertEquals(2, countSearchMatches(db, "name:Decor"));
+            assertEquals(3, countSearchMatches(db, "Supplier"));
+
+            // The index keeps no copy of the texts, and follows the changes of indexed decors
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, "sqlite_master", "name=?",
+                    new String[]{DecorDbHelper.SEARCH_TABLE_NAME + "_content"}));
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_SUPPLIER_NAME +
+                    "='Metalworks' WHERE " + DecorEntry._ID + "=3");
+            db.delete(DecorEntry.TABLE_NAME, DecorEntry._ID + "=1", null);
+            assertEquals(1, countSearchMatches(db, "Metalworks"));
+            assertEquals(1, countSearchMatches(db, "Supplier"));
+            assertEquals(1, countSearchMatches(db, "name:Decor"));
+            assertEquals(2, DatabaseUtils.queryNumEntries(db, DecorDbHelper.SEARCH_DOCSIZE_TABLE_NAME));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void migrationTo6IndexesPages() {
+        SQLiteDatabase db = createVersion1Database(3);
+        try {
+            migrateTo(db, 6);
+
+            // The page query seeks in the index instead of scanning and sorting the table
+            String plan = explainQueryPlan(db, "SELECT * FROM " + DecorEntry.TABLE_NAME +
+                    " WHERE " + DecorEntry.COLUMN_DECOR_NAME + ">=? AND (" + DecorEntry.COLUMN_DECOR_NAME +
+                    ">? OR " + DecorEntry._ID + ">?) ORDER BY " + DecorEntry.PAGE_SORT_ORDER + " LIMIT 2",
+                    new String[]{"Decor 1", "Decor 1", "1"});
+            assertTrue(plan, plan.contains(DecorEntry.TABLE_NAME + "_page"));
+            assertFalse(plan, plan.contains("TEMP B-TREE"));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void migrationTo7SumsUpExistingDecors() {
+        SQLiteDatabase db = createVersion1Database(20);
+        try {
+            setQuantity(db, 7, 0);
+            setQuantity(db, 12, 0);
+
+            migrateTo(db, 7);
+
+            assertEquals(20, DatabaseUtils.longForQuery(db, "SELECT SUM(" + DecorAggregateEntry.COLUMN_DECOR_COUNT +
+                    ") FROM " + DecorAggregateEntry.TABLE_NAME, null));
+            assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT SUM(" +
+                    DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT + ") FROM " + DecorAggregateEntry.TABLE_NAME, null));
+            assertAggregatesMatchDecors(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void aggregateTriggersFollowMixedChanges() {
+        SQLiteDatabase db = createVersion1Database(20);
+        try {
+            migrateTo(db, 7);
+
+            for (int i = 21; i <= 23; i++) {
+                db.insertOrThrow(DecorEntry.TABLE_NAME, null, TestDecorProviders.newDecor(i));
+            }
+            setQuantity(db, 21, 0);
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_PRICE + "=12.34" +
+                    " WHERE " + DecorEntry._ID + "=1");
+            setQuantity(db, 2, 0);
+            // Moves the decor to the aggregates of another material
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_MATERIAL + "=" +
+                    "(" + DecorEntry.COLUMN_DECOR_MATERIAL + " + 1) % 5 WHERE " + DecorEntry._ID + "=3");
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_MATERIAL + "=0, " +
+                    DecorEntry.COLUMN_DECOR_PRICE + "=0.1, " + DecorEntry.COLUMN_DECOR_QUANTITY + "=9" +
+                    " WHERE " + DecorEntry._ID + "=4");
+            // Doesn't touch the summed up columns
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_NAME + "='Lantern'" +
+                    " WHERE " + DecorEntry._ID + "=5");
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_QUANTITY + "=" +
+                    DecorEntry.COLUMN_DECOR_QUANTITY + " + 1 WHERE " + DecorEntry._ID + ">15");
+            db.delete(DecorEntry.TABLE_NAME, DecorEntry._ID + "=6", null);
+            // Leaves a material without decors
+            db.delete(DecorEntry.TABLE_NAME, DecorEntry.COLUMN_DECOR_MATERIAL + "=4", null);
+
+            assertAggregatesMatchDecors(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void migrationTo8ListsDecorsLowOnStock() {
+        SQLiteDatabase db = createVersion1Database(20);
+        try {
+            setQuantity(db, 3, 0);
+            setQuantity(db, 11, 0);
+
+            migrateTo(db, 8);
+            // The margins are computed in the background, then the scan lists the decors
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME));
+            runBackgroundMigrations(db);
+            assertEquals(20, DatabaseUtils.queryNumEntries(db, DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME));
+            scanLowStock(db);
+
+            // Without reorder thresholds, the margin is the quantity
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME,
+                    DecorEntry.COLUMN_DECOR_STOCK_MARGIN + "!=" + DecorEntry.COLUMN_DECOR_QUANTITY));
+            assertEquals(Arrays.asList(3L, 11L), queryLowStockIds(db));
+            assertLowStockMatchesMargins(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void stockTriggersFollowMixedChanges() {
+        SQLiteDatabase db = createVersion1Database(20);
+        try {
+            setQuantity(db, 3, 0);
+            migrateTo(db, 8);
+
+            ContentValues values = TestDecorProviders.newDecor(21);
+            values.put(DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD, 30);
+            db.insertOrThrow(DecorEntry.TABLE_NAME, null, values);
+            db.insertOrThrow(DecorEntry.TABLE_NAME, null, TestDecorProviders.newDecor(22));
+            // Restocked above its threshold, so it leaves the list
+            setQuantity(db, 3, 15);
+            setQuantity(db, 4, 0);
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD +
+                    "=10 WHERE " + DecorEntry._ID + "<=12");
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_QUANTITY + "=" +
+                    DecorEntry.COLUMN_DECOR_QUANTITY + " + 5 WHERE " + DecorEntry._ID + " IN (5, 6)");
+            db.delete(DecorEntry.TABLE_NAME, DecorEntry._ID + " IN (1, 2)", null);
+            // The margins of the decors changed before the background computation are kept
+            runBackgroundMigrations(db);
+            scanLowStock(db);
+
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME,
+                    DecorEntry.COLUMN_DECOR_STOCK_MARGIN + "!=" + DecorEntry.COLUMN_DECOR_QUANTITY + " - " +
+                            DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD));
+            // Decor 5 is right at its threshold, decor 6 just above it
+            assertEquals(Arrays.asList(4L, 5L, 7L, 8L, 9L, 10L, 21L), queryLowStockIds(db));
+            assertLowStockMatchesMargins(db);
+            assertAggregatesMatchDecors(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void imageMoveResumesFromLastChunk() throws IOException {
+        int chunkSize = DecorMigrations.getBackgroundMigrations(mImageStore)[0].getChunkSize();
+        int decorCount = chunkSize * 2 + 5;
+        SQLiteDatabase db = createVersion1Database(decorCount);
+        try {
+            migrateTo(db, 4);
+            assertTrue(DecorMigrations.runBackgroundMigrationChunk(db,
+                    DecorMigrations.getBackgroundMigrations(mImageStore)));
+
+            assertEquals(decorCount - chunkSize, countImageBlobs(db));
+            assertEquals(chunkSize, DatabaseUtils.longForQuery(db, "SELECT " + DecorMigrations.COLUMN_LAST_ID +
+                    " FROM " + DecorMigrations.BACKGROUND_MIGRATIONS_TABLE, null));
+        } finally {
+            db.close();
+        }
+
+        // Reopen the database like after the app was killed, the move continues where it stopped
+        DecorDbHelper dbHelper = new DecorDbHelper(mContext);
+        try {
+            dbHelper.runBackgroundMigrations();
+            db = dbHelper.getReadableDatabase();
+
+            assertEquals(0, countImageBlobs(db));
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, DecorMigrations.BACKGROUND_MIGRATIONS_TABLE));
+            assertImageMoved(db, 1);
+            assertImageMoved(db, decorCount);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsAllDecors() throws IOException {
+        createVersion1Database(10).close();
+
+        DecorDbHelper dbHelper = new DecorDbHelper(mContext);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            assertEquals(DecorDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(10, DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME));
+
+            dbHelper.runBackgroundMigrations();
+
+            for (int i = 1; i <= 10; i++) {
+                assertImageMoved(db, i);
+            }
+            assertEquals("Decor 7", DatabaseUtils.stringForQuery(db, "SELECT " + DecorEntry.COLUMN_DECOR_NAME +
+                    " FROM " + DecorEntry.TABLE_NAME + " WHERE " + DecorEntry._ID + "=7", null));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void newDatabaseHasNoPendingBackgroundMigrations() {
+        DecorDbHelper dbHelper = new DecorDbHelper(mContext);
+        try {
+            assertFalse(dbHelper.runBackgroundMigrationChunk());
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Create a database file with the schema of version 1 and the given number of decors,
+     * each with an image stored as a BLOB. The decors get IDs from 1 to decorCount.
+     */
+    private SQLiteDatabase createVersion1Database(int decorCount) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        db.execSQL(SQL_CREATE_VERSION_1);
+        for (int i = 1; i <= decorCount; i++) {
+            ContentValues values = TestDecorProviders.newDecor(i);
+            values.put(DecorEntry.COLUMN_DECOR_IMAGE, imageOf(i));
+            db.insertOrThrow(DecorEntry.TABLE_NAME, null, values);
+        }
+        db.setVersion(1);
+        return db;
+    }
+
+    /**
+     * Apply all upgrade steps up to the given version, inside a transaction like
+     * SQLiteOpenHelper does.
+     */
+    private static void migrateTo(SQLiteDatabase db, int version) {
+        db.beginTransaction();
+        try {
+            DecorMigrations.upgrade(db, db.getVersion(), version);
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void setQuantity(SQLiteDatabase db, long decorId, int quantity) {
+        db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_QUANTITY + "=" + quantity +
+                " WHERE " + DecorEntry._ID + "=" + decorId);
+    }
+
+    /**
+     * Checks that the aggregates of every material equal the sums of its decors computed again
+     * from scratch, and that every material of the decors has aggregates.
+     */
+    private void runBackgroundMigrations(SQLiteDatabase db) {
+        while (DecorMigrations.runBackgroundMigrationChunk(db, DecorMigrations.getBackgroundMigrations(mImageStore))) {
+            // Run all chunks
+        }
+    }
+
+    private static void scanLowStock(SQLiteDatabase db) {
+        while (DecorLowStockScanner.scanChunk(db) > 0) {
+            // Scan all changed decors
+        }
+    }
+
+    private static void assertAggregatesMatchDecors(SQLiteDatabase db) {
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + DecorEntry.TABLE_NAME +
+                " WHERE " + DecorEntry.COLUMN_DECOR_MATERIAL + " NOT IN (SELECT " +
+                DecorAggregateEntry.COLUMN_MATERIAL + " FROM " + DecorAggregateEntry.TABLE_NAME + ")", null));
+
+        Cursor cursor = db.rawQuery("SELECT a." + DecorAggregateEntry.COLUMN_MATERIAL +
+                ", a." + DecorAggregateEntry.COLUMN_DECOR_COUNT + ", COUNT(d." + DecorEntry._ID + ")" +
+                ", a." + DecorAggregateEntry.COLUMN_TOTAL_QUANTITY +
+                ", IFNULL(SUM(d." + DecorEntry.COLUMN_DECOR_QUANTITY + "), 0)" +
+                ", a." + DecorAggregateEntry.COLUMN_INVENTORY_VALUE +
+                ", IFNULL(SUM(d." + DecorEntry.COLUMN_DECOR_PRICE + " * d." + DecorEntry.COLUMN_DECOR_QUANTITY + "), 0)" +
+                ", a." + DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT +
+                ", IFNULL(SUM(d." + DecorEntry.COLUMN_DECOR_QUANTITY + " <= 0), 0)" +
+                " FROM " + DecorAggregateEntry.TABLE_NAME + " a LEFT JOIN " + DecorEntry.TABLE_NAME + " d" +
+                " ON d." + DecorEntry.COLUMN_DECOR_MATERIAL + "=a." + DecorAggregateEntry.COLUMN_MATERIAL +
+                " GROUP BY a." + DecorAggregateEntry.COLUMN_MATERIAL, null);
+        try {
+            assertTrue(cursor.getCount() > 0);
+            while (cursor.moveToNext()) {
+                String material = "Material " + cursor.getInt(0);
+                assertEquals(material, cursor.getLong(2), cursor.getLong(1));
+                assertEquals(material, cursor.getLong(4), cursor.getLong(3));
+                assertEquals(material, cursor.getDouble(6), cursor.getDouble(5), 1e-6);
+                assertEquals(material, cursor.getLong(8), cursor.getLong(7));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<Long> queryLowStockIds(SQLiteDatabase db) {
+        return queryIds(db, "SELECT " + DecorLowStockEntry.COLUMN_DECOR_ID + " FROM " + DecorLowStockEntry.TABLE_NAME +
+                " ORDER BY " + DecorLowStockEntry.COLUMN_DECOR_ID);
+    }
+
+    /**
+     * Checks that the low stock table lists exactly the decors whose stock margin is used up.
+     */
+    private static void assertLowStockMatchesMargins(SQLiteDatabase db) {
+        assertEquals(queryIds(db, "SELECT " + DecorEntry._ID + " FROM " + DecorEntry.TABLE_NAME +
+                        " WHERE " + DecorEntry.COLUMN_DECOR_STOCK_MARGIN + "<=0 ORDER BY " + DecorEntry._ID),
+                queryLowStockIds(db));
+    }
+
+    private static List<Long> queryIds(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            List<Long> ids = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasColumn(SQLiteDatabase db, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + DecorEntry.TABLE_NAME + ")", null);
+        try {
+            int nameColumnIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameColumnIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String explainQueryPlan(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            StringBuilder plan = new StringBuilder();
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailColumnIndex)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long countSearchMatches(SQLiteDatabase db, String text) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + DecorDbHelper.SEARCH_TABLE_NAME +
+                " WHERE " + DecorDbHelper.SEARCH_TABLE_NAME + " MATCH ?", new String[]{text});
+    }
+
+    private static long countImageBlobs(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME,
+                DecorEntry.COLUMN_DECOR_IMAGE + " IS NOT NULL");
+    }
+
+    private void assertImageMoved(SQLiteDatabase db, int decorId) throws IOException {
+        Cursor cursor = db.query(DecorEntry.TABLE_NAME,
+                new String[]{DecorEntry.COLUMN_DECOR_IMAGE, DecorEntry.COLUMN_DECOR_IMAGE_HASH},
+                DecorEntry._ID + "=?", new String[]{String.valueOf(decorId)}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertNull(cursor.getBlob(0));
+            String hash = cursor.getString(1);
+            assertNotNull(hash);
+            assertArrayEquals(imageOf(decorId), readFile(mImageStore.getFile(hash)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns fake image bytes, distinct for every decor.
+     */
+    private static byte[] imageOf(int decorId) {
+        byte[] image = new byte[1024];
+        Arrays.fill(image, (byte) decorId);
+        return image;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = inputStream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of {@link DecorProvider#bulkInsert} with inserting
+ * the same rows one by one through {@link DecorProvider#insert}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorProviderBulkInsertBenchmark {
+
+    private static final String LOG_TAG = DecorProviderBulkInsertBenchmark.class.getSimpleName();
+
+    /**
+     * Number of rows inserted by each path
+     */
+    private static final int ROW_COUNT = 2000;
+
+    private Context mContext;
+    private DecorProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = TestDecorProviders.isolatedContext("bulk_insert_benchmark.");
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mProvider = TestDecorProviders.create(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void bulkInsertIsFasterThanPerRowInsert() {
+        ContentValues[] rows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows[i] = TestDecorProviders.newDecor(i);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues row : rows) {
+            mProvider.insert(DecorEntry.CONTENT_URI, row);
+        }
+        long perRowMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        mProvider.delete(DecorEntry.CONTENT_URI, null, null);
+
+        start = SystemClock.elapsedRealtime();
+        int inserted = mProvider.bulkInsert(DecorEntry.CONTENT_URI, rows);
+        long bulkMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        assertEquals(ROW_COUNT, inserted);
+        assertEquals(ROW_COUNT, countDecors());
+
+        long perRowThroughput = ROW_COUNT * 1000L / perRowMillis;
+        long bulkThroughput = ROW_COUNT * 1000L / bulkMillis;
+        Log.i(LOG_TAG, "insert(): " + perRowThroughput + " rows/s, bulkInsert(): "
+                + bulkThroughput + " rows/s");
+
+        assertTrue("bulkInsert() should be faster than per-row insert()",
+                bulkThroughput > perRowThroughput);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkInsertRejectsWholeSetWhenAnyRowIsInvalid() {
+        ContentValues invalid = TestDecorProviders.newDecor(1);
+        invalid.put(DecorEntry.COLUMN_DECOR_PRICE, -1);
+        try {
+            mProvider.bulkInsert(DecorEntry.CONTENT_URI,
+                    new ContentValues[]{TestDecorProviders.newDecor(0), invalid});
+        } finally {
+            assertEquals(0, countDecors());
+        }
+    }
+
+    private int countDecors() {
+        Cursor cursor = mProvider.query(DecorEntry.CONTENT_URI, new String[]{DecorEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that single-decor queries keep their latency while another thread keeps
+ * the database busy with updates, which is what write-ahead logging is enabled for.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorProviderContentionTest {
+
+    private static final String LOG_TAG = DecorProviderContentionTest.class.getSimpleName();
+
+    private static final int ROW_COUNT = 1000;
+    private static final int READ_COUNT = 300;
+
+    /**
+     * Allowed slowdown of reads while the writer is running
+     */
+    private static final int MAX_SLOWDOWN_FACTOR = 3;
+
+    /**
+     * Absolute slack (in nanoseconds) so the check doesn't fail on sub-millisecond noise
+     */
+    private static final long LATENCY_SLACK_NANOS = 2000000L;
+
+    private Context mContext;
+    private DecorProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = TestDecorProviders.isolatedContext("contention_test.");
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mProvider = TestDecorProviders.create(mContext);
+
+        ContentValues[] rows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows[i] = TestDecorProviders.newDecor(i);
+        }
+        mProvider.bulkInsert(DecorEntry.CONTENT_URI, rows);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void readLatencyStaysFlatUnderWriteLoad() throws InterruptedException {
+        long[] idleLatencies = measureReads(new Random(1));
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger updates = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(2);
+                ContentValues values = new ContentValues();
+                while (writing.get()) {
+                    Uri uri = ContentUris.withAppendedId(DecorEntry.CONTENT_URI, 1 + random.nextInt(ROW_COUNT));
+                    values.put(DecorEntry.COLUMN_DECOR_QUANTITY, random.nextInt(100));
+                    mProvider.update(uri, values, null, null);
+                    updates.incrementAndGet();
+                }
+            }
+        }, "DecorWriter");
+        writer.start();
+
+        long[] busyLatencies;
+        try {
+            // Let the writer get going before reads are measured
+            SystemClock.sleep(200);
+            busyLatencies = measureReads(new Random(3));
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+
+        long idleMedian = percentile(idleLatencies, 50);
+        long busyMedian = percentile(busyLatencies, 50);
+        long idleP90 = percentile(idleLatencies, 90);
+        long busyP90 = percentile(busyLatencies, 90);
+        Log.i(LOG_TAG, "Reads idle p50/p90: " + idleMedian + "/" + idleP90 + " ns, under "
+                + updates.get() + " updates p50/p90: " + busyMedian + "/" + busyP90 + " ns");
+
+        assertTrue("Writer thread didn't run", updates.get() > 0);
+        assertTrue("Median read latency grew from " + idleMedian + " to " + busyMedian + " ns",
+                busyMedian <= idleMedian * MAX_SLOWDOWN_FACTOR + LATENCY_SLACK_NANOS);
+        assertTrue("90th percentile read latency grew from " + idleP90 + " to " + busyP90 + " ns",
+                busyP90 <= idleP90 * MAX_SLOWDOWN_FACTOR + LATENCY_SLACK_NANOS);
+    }
+
+    /**
+     * Query random single decors and return the sorted latencies in nanoseconds.
+     */
+    private long[] measureReads(Random random) {
+        long[] latencies = new long[READ_COUNT];
+        for (int i = 0; i < READ_COUNT; i++) {
+            Uri uri = ContentUris.withAppendedId(DecorEntry.CONTENT_URI, 1 + random.nextInt(ROW_COUNT));
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(uri, null, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long percentile(long[] sortedValues, int percent) {
+        return sortedValues[(sortedValues.length - 1) * percent / 100];
+    }
+}
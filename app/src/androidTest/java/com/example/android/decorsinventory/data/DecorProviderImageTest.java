@@ -0,0 +1,196 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.decorsinventory.DecorImageChunkReader;
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that images larger than a CursorWindow, still stored as BLOBs or moved to the image
+ * store, read back whole through {@link DecorProvider#openFile} and
+ * {@link DecorEntry#METHOD_READ_IMAGE_CHUNK}, and that an image edited while it's read in chunks
+ * fails the read.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorProviderImageTest {
+
+    /**
+     * Size of the images, above the 2 MB of a CursorWindow
+     */
+    private static final int IMAGE_SIZE = 3 * 1024 * 1024 + 123;
+
+    private Context mContext;
+    private DecorProvider mProvider;
+    private MockContentResolver mResolver;
+    private long mDecorId;
+    private Uri mImageUri;
+
+    @Before
+    public void setUp() {
+        mContext = TestDecorProviders.isolatedContext("image_test.");
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mProvider = TestDecorProviders.create(mContext);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(DecorContract.CONTENT_AUTHORITY, mProvider);
+
+        mDecorId = ContentUris.parseId(mProvider.insert(DecorEntry.CONTENT_URI, TestDecorProviders.newDecor(1)));
+        mImageUri = DecorEntry.buildImageUri(mDecorId);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void readsLargeBlobImage() throws IOException {
+        byte[] image = newImage(1);
+        // Like an image saved before the image store, which is not moved there yet
+        DecorDbHelper dbHelper = new DecorDbHelper(mContext);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_IMAGE + "=? WHERE " +
+                    DecorEntry._ID + "=?", new Object[]{image, mDecorId});
+        } finally {
+            dbHelper.close();
+        }
+
+        assertNull(readChunk(0).getString(DecorEntry.EXTRA_IMAGE_HASH));
+        assertImageEquals(image, readFully(mResolver.openInputStream(mImageUri)));
+        assertImageEquals(image, readFully(new DecorImageChunkReader(mResolver, mDecorId)));
+    }
+
+    @Test
+    public void readsLargeStoredImage() throws IOException {
+        byte[] image = newImage(2);
+        updateImage(image);
+
+        Bundle chunk = readChunk(0);
+        assertEquals(IMAGE_SIZE, chunk.getLong(DecorEntry.EXTRA_TOTAL_LENGTH));
+        assertEquals(DecorEntry.MAX_IMAGE_CHUNK_SIZE, chunk.getByteArray(DecorEntry.EXTRA_CHUNK).length);
+        // Past the end of the image, the chunk is empty
+        assertEquals(0, readChunk(IMAGE_SIZE).getByteArray(DecorEntry.EXTRA_CHUNK).length);
+
+        byte[] fromFile = readFully(mResolver.openInputStream(mImageUri));
+        byte[] fromChunks = readFully(new DecorImageChunkReader(mResolver, mDecorId, 100000));
+        assertImageEquals(image, fromFile);
+        assertImageEquals(image, fromChunks);
+        assertEquals(chunk.getString(DecorEntry.EXTRA_IMAGE_HASH), sha256(fromChunks));
+    }
+
+    @Test
+    public void failsReadOfImageEditedMeanwhile() throws IOException {
+        updateImage(newImage(3));
+
+        InputStream in = new DecorImageChunkReader(mResolver, mDecorId);
+        try {
+            byte[] buffer = new byte[DecorEntry.MAX_IMAGE_CHUNK_SIZE];
+            assertTrue(in.read(buffer) > 0);
+
+            // Same size, only the hash tells the images apart
+            updateImage(newImage(4));
+            try {
+                while (in.read(buffer) != -1) {
+                    // Read up to the next chunk
+                }
+                fail("The edit should have been detected");
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void updateImage(byte[] image) {
+        ContentValues values = new ContentValues();
+        values.put(DecorEntry.COLUMN_DECOR_IMAGE, image);
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(DecorEntry.CONTENT_URI, mDecorId),
+                values, null, null));
+    }
+
+    private Bundle readChunk(long offset) {
+        Bundle extras = new Bundle();
+        extras.putLong(DecorEntry.EXTRA_DECOR_ID, mDecorId);
+        extras.putLong(DecorEntry.EXTRA_OFFSET, offset);
+        Bundle result = mProvider.call(DecorEntry.METHOD_READ_IMAGE_CHUNK, null, extras);
+        assertNotNull(result);
+        return result;
+    }
+
+    /**
+     * Returns the bytes of an image, distinct for every seed.
+     */
+    private static byte[] newImage(int seed) {
+        byte[] image = new byte[IMAGE_SIZE];
+        new Random(seed).nextBytes(image);
+        return image;
+    }
+
+    private static void assertImageEquals(byte[] expected, byte[] actual) {
+        assertEquals(expected.length, actual.length);
+        assertEquals(sha256(expected), sha256(actual));
+        // Compared a chunk at a time, so a failure doesn't print megabytes of bytes
+        for (int offset = 0; offset < expected.length; offset += DecorEntry.MAX_IMAGE_CHUNK_SIZE) {
+            int end = Math.min(expected.length, offset + DecorEntry.MAX_IMAGE_CHUNK_SIZE);
+            assertArrayEquals("Chunk at " + offset, Arrays.copyOfRange(expected, offset, end),
+                    Arrays.copyOfRange(actual, offset, end));
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        assertNotNull(in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
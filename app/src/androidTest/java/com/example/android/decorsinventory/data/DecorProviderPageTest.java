@@ -0,0 +1,105 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through the decors of {@link DecorProvider} the way the catalog does, and checks that
+ * every decor is listed exactly once, in {@link DecorEntry#PAGE_SORT_ORDER}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorProviderPageTest {
+
+    private static final int DECOR_COUNT = 97;
+    private static final int PAGE_SIZE = 10;
+
+    private static final String[] PROJECTION = {DecorEntry._ID, DecorEntry.COLUMN_DECOR_NAME};
+
+    private Context mContext;
+    private DecorProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = TestDecorProviders.isolatedContext("page_test.");
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mProvider = TestDecorProviders.create(mContext);
+
+        // Names repeat and are inserted out of order, so neither the IDs nor the names alone
+        // give the page order
+        ContentValues[] rows = new ContentValues[DECOR_COUNT];
+        for (int i = 0; i < DECOR_COUNT; i++) {
+            rows[i] = TestDecorProviders.newDecor(i);
+            rows[i].put(DecorEntry.COLUMN_DECOR_NAME, "Decor " + (char) ('z' - i % 13));
+        }
+        mProvider.bulkInsert(DecorEntry.CONTENT_URI, rows);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void pagesListEveryDecorOnceInOrder() {
+        Set<Long> seenIds = new HashSet<>();
+        String lastName = null;
+        long lastId = -1;
+        Uri pageUri = DecorEntry.buildPageUri(PAGE_SIZE);
+        int pageCount = 0;
+
+        while (pageUri != null) {
+            Cursor cursor = mProvider.query(pageUri, PROJECTION, null, null, null);
+            try {
+                assertTrue(cursor.getCount() <= PAGE_SIZE);
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    String name = cursor.getString(1);
+                    assertTrue("Decor " + id + " listed twice", seenIds.add(id));
+                    if (lastName != null) {
+                        int order = name.compareTo(lastName);
+                        assertTrue("Decor " + id + " out of order", order > 0 || (order == 0 && id > lastId));
+                    }
+                    lastName = name;
+                    lastId = id;
+                }
+                pageUri = cursor.getCount() < PAGE_SIZE ? null :
+                        DecorEntry.buildPageUri(lastName, lastId, PAGE_SIZE);
+            } finally {
+                cursor.close();
+            }
+            pageCount++;
+        }
+
+        assertEquals(DECOR_COUNT, seenIds.size());
+        assertEquals(DECOR_COUNT / PAGE_SIZE + 1, pageCount);
+    }
+
+    @Test
+    public void keepsGivenSortOrderOfLimitedQuery() {
+        Cursor cursor = mProvider.query(DecorEntry.buildPageUri(PAGE_SIZE), PROJECTION, null, null,
+                DecorEntry._ID + " DESC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(DECOR_COUNT, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the full-text search of {@link DecorProvider}: prefix matching, ranking and
+ * the selection given along with the searched text.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorProviderSearchTest {
+
+    private static final String[] PROJECTION = {DecorEntry._ID, DecorEntry.COLUMN_DECOR_NAME};
+
+    private Context mContext;
+    private DecorProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = TestDecorProviders.isolatedContext("search_test.");
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mProvider = TestDecorProviders.create(mContext);
+
+        mProvider.bulkInsert(DecorEntry.CONTENT_URI, new ContentValues[]{
+                newDecor("Vase", "Blue glass", "Lanterns Ltd", 3),
+                newDecor("Golden Lantern", "Brass", "Metalworks", 0),
+                newDecor("Candle holder", "Lights up like a lantern", "Metalworks", 7),
+                newDecor("Mirror", "Round", "Glassworks", 2)
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void matchesWordPrefixesInAllIndexedColumns() {
+        assertEquals(Arrays.asList("Golden Lantern", "Candle holder", "Vase"), search("lant", null, null));
+        assertEquals(Arrays.asList("Mirror", "Vase"), search("glas", null, null));
+        assertEquals(Arrays.asList("Mirror"), search("mir", null, null));
+    }
+
+    @Test
+    public void ranksNameMatchesFirstThenByName() {
+        // The name match comes first even though "Candle holder" comes before it alphabetically
+        assertEquals(Arrays.asList("Golden Lantern", "Candle holder", "Vase"), search("LANTERN", null, null));
+        // A decor only matches by name if all words are in its name, otherwise the names decide
+        assertEquals(Arrays.asList("Candle holder", "Golden Lantern"), search("lant metal", null, null));
+    }
+
+    @Test
+    public void combinesSelectionWithMatchArguments() {
+        assertEquals(Arrays.asList("Candle holder", "Vase"), search("lant",
+                DecorEntry.COLUMN_DECOR_QUANTITY + ">?", new String[]{"0"}));
+        assertEquals(Arrays.asList("Golden Lantern"), search("lant",
+                DecorEntry.COLUMN_DECOR_SUPPLIER_NAME + "=? AND " + DecorEntry.COLUMN_DECOR_QUANTITY + "<?",
+                new String[]{"Metalworks", "1"}));
+    }
+
+    @Test
+    public void ignoresSearchSyntaxInText() {
+        // Quotes, operators and stars are dropped, so they can't break the MATCH expression
+        assertEquals(Arrays.asList("Golden Lantern", "Candle holder", "Vase"), search("(\"lant*", null, null));
+        assertEquals(Arrays.asList("Vase"), search("vase:", null, null));
+    }
+
+    @Test
+    public void returnsNoDecorsWithoutWords() {
+        Cursor cursor = mProvider.query(DecorEntry.buildSearchUri(" -*\" "), PROJECTION, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+            assertEquals(PROJECTION.length, cursor.getColumnCount());
+        } finally {
+            cursor.close();
+        }
+        assertTrue(search("", null, null).isEmpty());
+    }
+
+    private List<String> search(String text, String selection, String[] selectionArgs) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mProvider.query(DecorEntry.buildSearchUri(text), PROJECTION, selection, selectionArgs, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(cursor.getColumnIndexOrThrow(DecorEntry.COLUMN_DECOR_NAME)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private static ContentValues newDecor(String name, String description, String supplierName, int quantity) {
+        ContentValues values = TestDecorProviders.newDecor(0);
+        values.put(DecorEntry.COLUMN_DECOR_NAME, name);
+        values.put(DecorEntry.COLUMN_DECOR_DESCRIPTION, description);
+        values.put(DecorEntry.COLUMN_DECOR_SUPPLIER_NAME, supplierName);
+        values.put(DecorEntry.COLUMN_DECOR_QUANTITY, quantity);
+        return values;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that single decors read through the row cache of {@link DecorProvider} never go
+ * stale: every kind of write invalidates them, and reads racing with writes aren't cached.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecorRowCacheTest {
+
+    private static final String[] PROJECTION = {DecorEntry.COLUMN_DECOR_NAME, DecorEntry.COLUMN_DECOR_QUANTITY};
+
+    private Context mContext;
+    private DecorProvider mProvider;
+    private Uri mDecorUri;
+
+    @Before
+    public void setUp() {
+        mContext = TestDecorProviders.isolatedContext("row_cache_test.");
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mProvider = TestDecorProviders.create(mContext);
+
+        ContentValues values = TestDecorProviders.newDecor(1);
+        values.put(DecorEntry.COLUMN_DECOR_NAME, "Lantern");
+        values.put(DecorEntry.COLUMN_DECOR_QUANTITY, 5);
+        mDecorUri = mProvider.insert(DecorEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void servesRepeatedReadsFromCache() {
+        assertEquals("Lantern", queryName());
+        int hits = cacheStats().getInt(DecorEntry.EXTRA_HIT_COUNT);
+
+        assertEquals("Lantern", queryName());
+        assertEquals(hits + 1, cacheStats().getInt(DecorEntry.EXTRA_HIT_COUNT));
+    }
+
+    @Test
+    public void updateInvalidatesDecor() {
+        assertEquals("Lantern", queryName());
+
+        ContentValues values = new ContentValues();
+        values.put(DecorEntry.COLUMN_DECOR_NAME, "Candle");
+        assertEquals(1, mProvider.update(mDecorUri, values, null, null));
+
+        assertEquals("Candle", queryName());
+    }
+
+    @Test
+    public void updateOfAllDecorsInvalidatesDecor() {
+        assertEquals(5, queryQuantity());
+
+        ContentValues values = new ContentValues();
+        values.put(DecorEntry.COLUMN_DECOR_QUANTITY, 9);
+        mProvider.update(DecorEntry.CONTENT_URI, values, null, null);
+
+        assertEquals(9, queryQuantity());
+    }
+
+    @Test
+    public void deleteInvalidatesDecor() {
+        assertEquals("Lantern", queryName());
+
+        assertEquals(1, mProvider.delete(mDecorUri, null, null));
+
+        Cursor cursor = mProvider.query(mDecorUri, PROJECTION, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void sellInvalidatesDecor() {
+        assertEquals(5, queryQuantity());
+
+        Bundle extras = new Bundle();
+        extras.putLong(DecorEntry.EXTRA_DECOR_ID, ContentUris.parseId(mDecorUri));
+        extras.putInt(DecorEntry.EXTRA_AMOUNT, 2);
+        Bundle result = mProvider.call(DecorEntry.METHOD_SELL, null, extras);
+        assertNotNull(result);
+        assertEquals(3, result.getInt(DecorEntry.EXTRA_QUANTITY));
+
+        assertEquals(3, queryQuantity());
+    }
+
+    @Test
+    public void rolledBackBatchLeavesNoUncommittedRowCached() {
+        assertEquals("Lantern", queryName());
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(mDecorUri)
+                .withValue(DecorEntry.COLUMN_DECOR_NAME, "Candle")
+                .build());
+        // Reads the decor inside the batch's transaction, before it's committed
+        operations.add(ContentProviderOperation.newAssertQuery(mDecorUri)
+                .withValue(DecorEntry.COLUMN_DECOR_NAME, "Candle")
+                .build());
+        // Fails, so the whole batch is rolled back
+        operations.add(ContentProviderOperation.newInsert(DecorEntry.CONTENT_URI)
+                .withValues(new ContentValues())
+                .build());
+        try {
+            mProvider.applyBatch(operations);
+            fail("The batch should have failed");
+        } catch (IllegalArgumentException | OperationApplicationException e) {
+            // Expected
+        }
+
+        assertEquals("Lantern", queryName());
+    }
+
+    @Test
+    public void readRacingWithWriteIsNotCached() {
+        DecorRowCache cache = new DecorRowCache(64 * 1024);
+        MatrixCursor row = new MatrixCursor(new String[]{DecorEntry._ID, DecorEntry.COLUMN_DECOR_NAME});
+        row.addRow(new Object[]{1L, "Lantern"});
+        row.moveToFirst();
+
+        // The read started before the write invalidated the decor
+        long generation = cache.getGeneration();
+        cache.invalidate(1);
+        Cursor cursor = cache.put(1, row, generation, null);
+        cursor.close();
+        assertNull(cache.get(1, null));
+
+        // A read started after the write is cached
+        cursor = cache.put(1, row, cache.getGeneration(), null);
+        cursor.close();
+        cursor = cache.get(1, new String[]{DecorEntry.COLUMN_DECOR_NAME});
+        assertNotNull(cursor);
+        cursor.close();
+        row.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsExpressionsInProjection() {
+        mProvider.query(mDecorUri, new String[]{"COUNT(*)"}, null, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsQualifiedColumnsInProjection() {
+        queryName();
+        mProvider.query(mDecorUri, new String[]{DecorEntry.TABLE_NAME + "." + DecorEntry.COLUMN_DECOR_NAME},
+                null, null, null);
+    }
+
+    private String queryName() {
+        Cursor cursor = mProvider.query(mDecorUri, PROJECTION, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int queryQuantity() {
+        Cursor cursor = mProvider.query(mDecorUri, PROJECTION, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle cacheStats() {
+        return mProvider.call(DecorEntry.METHOD_ROW_CACHE_STATS, null, null);
+    }
+}
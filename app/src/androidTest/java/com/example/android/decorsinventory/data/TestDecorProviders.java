@@ -0,0 +1,50 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+/**
+ * Helpers for instrumented tests which need a {@link DecorProvider} working on its own
+ * database file, so the data of the installed app is never touched.
+ */
+final class TestDecorProviders {
+
+    private TestDecorProviders() {
+    }
+
+    /**
+     * Returns a context which prefixes all database and file names with the given prefix.
+     */
+    static Context isolatedContext(String prefix) {
+        return new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), prefix);
+    }
+
+    /**
+     * Creates a {@link DecorProvider} attached to the given (isolated) context.
+     */
+    static DecorProvider create(Context context) {
+        DecorProvider provider = new DecorProvider();
+        provider.attachInfo(context, null);
+        return provider;
+    }
+
+    /**
+     * Builds a valid set of decor values. The given number makes every decor distinct.
+     */
+    static ContentValues newDecor(int number) {
+        ContentValues values = new ContentValues();
+        values.put(DecorEntry.COLUMN_DECOR_NAME, "Decor " + number);
+        values.put(DecorEntry.COLUMN_DECOR_DESCRIPTION, "Description of decor " + number);
+        values.put(DecorEntry.COLUMN_DECOR_MATERIAL, number % 5);
+        values.put(DecorEntry.COLUMN_DECOR_HEIGHT, number % 100);
+        values.put(DecorEntry.COLUMN_DECOR_PRICE, (number % 1000) / 10d);
+        values.put(DecorEntry.COLUMN_DECOR_QUANTITY, number % 50);
+        values.put(DecorEntry.COLUMN_DECOR_SUPPLIER_NAME, "Supplier " + (number % 20));
+        values.put(DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL, "supplier" + (number % 20) + "@example.com");
+        return values;
+    }
+}
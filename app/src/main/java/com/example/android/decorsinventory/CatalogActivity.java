@@ -18,70 +18,133 @@ package com.example.android.decorsinventory;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 
 import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Displays list of decors that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<Cursor> {
+        implements LoaderManager.LoaderCallbacks<List<DecorRow>>, DecorAdapter.OnDecorClickListener {
+
+    /**
+     * Setup an Adapter to create a list item for each snapshot of decor data.
+     */
+    DecorAdapter decorAdapter;
+
+    /**
+     * View shown instead of the list when there are no decors
+     */
+    private View mEmptyView;
 
     /**
-     * Setup an Adapter to create a list item for each row of decor data in the Cursor.
+     * Queue writing the sales made in the catalog
      */
-    DecorCursorAdapter decorAdapter;
+    private DecorSaleQueue mSaleQueue;
 
     /**
      * Id of a Loader used for displaying decor data.
      */
     private static final int DECOR_LOADER_ID = 0;
 
+    /**
+     * Request code of the file picked to import decors from
+     */
+    private static final int PICK_IMPORT_FILE = 1;
+
+    /**
+     * Number of decors loaded at once while scrolling through the catalog
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Number of decors left below the visible ones when the next page starts loading
+     */
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+
+    /**
+     * Time the search waits for the user to stop typing, so a word isn't searched letter by letter
+     */
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    /**
+     * Text the catalog is filtered by, empty when all decors are shown.
+     */
+    private String mSearchText = "";
+
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Searches for the typed text, posted once the user stops typing
+     */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSearchPending = false;
+            getLoaderManager().restartLoader(DECOR_LOADER_ID, null, CatalogActivity.this);
+        }
+    };
+
+    /**
+     * Whether {@link #mSearchRunnable} is posted and didn't run yet
+     */
+    private boolean mSearchPending;
+
+    /**
+     * Whether the exports include the images of the decors
+     */
+    private boolean mExportImages;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
-        // Find the ListView which will be populated with the decor data
-        ListView decorListView = (ListView) findViewById(R.id.list_view_decor);
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        decorListView.setEmptyView(emptyView);
+        // Find the RecyclerView which will be populated with the decor data
+        RecyclerView decorRecyclerView = (RecyclerView) findViewById(R.id.list_view_decor);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        decorRecyclerView.setLayoutManager(layoutManager);
+        decorRecyclerView.addItemDecoration(
+                new DividerItemDecoration(this, layoutManager.getOrientation()));
+        // Find the empty view, so that it only shows when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        decorAdapter = new DecorCursorAdapter(this, null);
-        // Attach cursor adapter to the ListView
-        decorListView.setAdapter(decorAdapter);
+        mSaleQueue = new DecorSaleQueue(this);
+        decorAdapter = new DecorAdapter(this, mSaleQueue, this);
+        // Attach the adapter to the RecyclerView
+        decorRecyclerView.setAdapter(decorAdapter);
 
-        //Setup the item click listener
-        decorListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Load the next page of decors as the user scrolls towards the end of the loaded ones
+        decorRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // Form the content URI that represents the specific decor that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link DecorEntry#CONTENT_URI}
-                Uri currentDecorUri = ContentUris.withAppendedId(DecorEntry.CONTENT_URI, id);
-                // Create new Intent to go to {@link EditorActivity}
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-
-                // Set the URI on the data field of intent
-                intent.setData(currentDecorUri);
-
-                // Launch the {@link EditorActivity} to display the data for the current decor.
-                startActivity(intent);
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int itemCount = layoutManager.getItemCount();
+                if (itemCount > 0
+                        && layoutManager.findLastVisibleItemPosition() + PAGE_PREFETCH_DISTANCE >= itemCount) {
+                    Loader<List<DecorRow>> loader = getLoaderManager().getLoader(DECOR_LOADER_ID);
+                    if (loader != null) {
+                        ((DecorPageLoader) loader).loadNextPage();
+                    }
+                }
             }
         });
 
@@ -100,6 +163,31 @@ public class CatalogActivity extends AppCompatActivity
         getLoaderManager().initLoader(DECOR_LOADER_ID, null, this);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSearchRunnable);
+        // Write the sales still waiting in the queue
+        mSaleQueue.setListener(null);
+        mSaleQueue.quit();
+        decorAdapter.release();
+    }
+
+    @Override
+    public void onDecorClick(long decorId) {
+        // Form the content URI that represents the specific decor that was clicked on,
+        // by appending the "id" (passed as input to this method) onto the
+        // {@link DecorEntry#CONTENT_URI}
+        Uri currentDecorUri = ContentUris.withAppendedId(DecorEntry.CONTENT_URI, decorId);
+        // Create new Intent to go to {@link EditorActivity}
+        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+
+        // Set the URI on the data field of intent
+        intent.setData(currentDecorUri);
+
+        // Launch the {@link EditorActivity} to display the data for the current decor.
+        startActivity(intent);
+    }
 
     /**
      * Helper method to insert hardcoded decor data into the database. For debugging purposes only.
@@ -136,6 +224,34 @@ public class CatalogActivity extends AppCompatActivity
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        menu.findItem(R.id.action_export_images).setChecked(mExportImages);
+
+        // Filter the catalog as the user types in the search field
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Don't wait any longer for the submitted text
+                if (mSearchPending) {
+                    mHandler.removeCallbacks(mSearchRunnable);
+                    mSearchRunnable.run();
+                }
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String searchText = newText.trim();
+                if (!searchText.equals(mSearchText)) {
+                    mSearchText = searchText;
+                    // Every change postpones the search, it runs once the user stops typing
+                    mHandler.removeCallbacks(mSearchRunnable);
+                    mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
+                    mSearchPending = true;
+                }
+                return true;
+            }
+        });
         return true;
     }
 
@@ -151,46 +267,83 @@ public class CatalogActivity extends AppCompatActivity
             case R.id.action_delete_all_entries:
                 deleteAllDecors();
                 return true;
+            // Respond to a click on the "Import" menu option
+            case R.id.action_import:
+                pickImportFile();
+                return true;
+            // Respond to a click on the export menu options
+            case R.id.action_export_csv:
+                shareExport(DecorEntry.EXPORT_FORMAT_CSV, DecorEntry.CONTENT_CSV_TYPE);
+                return true;
+            case R.id.action_export_json:
+                shareExport(DecorEntry.EXPORT_FORMAT_JSON, DecorEntry.CONTENT_JSON_TYPE);
+                return true;
+            case R.id.action_export_images:
+                mExportImages = !mExportImages;
+                item.setChecked(mExportImages);
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Lets the user send all decors as a file to another app. The file is written by the provider
+     * while the app reads it.
+     */
+    private void shareExport(String format, String mimeType) {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(mimeType);
+        intent.putExtra(Intent.EXTRA_STREAM, DecorEntry.buildExportUri(format, mExportImages));
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.export_chooser_title)));
+    }
+
+    /**
+     * Lets the user pick a CSV or JSON file to import decors from.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        // Spreadsheets are often exported with generic MIME types, so don't filter them out
+        intent.setType("*/*");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                    "text/csv", "text/comma-separated-values", "text/plain", "application/json",
+                    "application/octet-stream"});
+        }
+        startActivityForResult(intent, PICK_IMPORT_FILE);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == PICK_IMPORT_FILE && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            // The decors show up in the catalog as the chunks are committed
+            DecorImportService.start(this, data.getData());
+        }
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    public Loader<List<DecorRow>> onCreateLoader(int id, Bundle args) {
         // This is called when a new Loader needs to be created.  This
         // code only has one Loader, so we don't care about the ID.
 
-        String[] projection = {
-                DecorEntry._ID,
-                DecorEntry.COLUMN_DECOR_NAME,
-                DecorEntry.COLUMN_DECOR_PRICE,
-                DecorEntry.COLUMN_DECOR_QUANTITY
-        };
-
+        // List all decors page by page, or search them if the user typed anything.
         // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                DecorEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        return new DecorPageLoader(this, mSearchText.isEmpty() ? null : mSearchText, PAGE_SIZE);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-
-        // Swap the new cursor in.  (The framework will take care of closing the
-        // old cursor once we return.)
-        decorAdapter.swapCursor(data);
-
-
+    public void onLoadFinished(Loader<List<DecorRow>> loader, List<DecorRow> rows) {
+        // Show the new snapshots, only the changed decors are bound again.
+        decorAdapter.submitRows(rows);
+        mEmptyView.setVisibility(rows.isEmpty() ? View.VISIBLE : View.GONE);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // This is called when the last Cursor provided to onLoadFinished()
-        // above is about to be closed.  We need to make sure we are no
-        // longer using it.
-        decorAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<List<DecorRow>> loader) {
+        // This is called when the last snapshots provided to onLoadFinished()
+        // above are dropped.
+        decorAdapter.submitRows(Collections.<DecorRow>emptyList());
     }
 }
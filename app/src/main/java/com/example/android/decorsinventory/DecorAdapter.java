@@ -0,0 +1,437 @@
+package com.example.android.decorsinventory;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link DecorAdapter} is an adapter for a {@link RecyclerView} showing snapshots of decors.
+ * New snapshots are compared with the shown ones in the background, and only the decors
+ * which changed are bound again.
+ */
+public class DecorAdapter extends RecyclerView.Adapter<DecorAdapter.DecorViewHolder>
+        implements DecorSaleQueue.Listener {
+
+    /**
+     * Receives the clicks on the decors in the list.
+     */
+    public interface OnDecorClickListener {
+        void onDecorClick(long decorId);
+    }
+
+    /**
+     * Computes the differences between the snapshots, one after another, away from the main thread
+     */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+
+    /**
+     * Size of the generated thumbnails shown in the list items
+     */
+    private final int mThumbnailSize;
+
+    /**
+     * Queue writing the sales made with the SALE buttons
+     */
+    private final DecorSaleQueue mSaleQueue;
+
+    private final OnDecorClickListener mClickListener;
+
+    /**
+     * Decodes the thumbnails in the background, through the image cache shared with the editor
+     */
+    private final DecorImageLoader mImageLoader;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Texts of the list items, prepared once so binding doesn't allocate
+     */
+    private final String mFreeText;
+    private final NumberTemplate mPriceTemplate;
+    private final NumberTemplate mQuantityTemplate;
+
+    /**
+     * Shown snapshots
+     */
+    private List<DecorRow> mRows = Collections.emptyList();
+
+    /**
+     * Number of snapshots submitted so far, so the differences to outdated ones are dropped
+     */
+    private int mGeneration;
+
+    /**
+     * Sales written since the shown snapshots of their decors were loaded, by decor ID. The quantity
+     * they left is shown until a newer snapshot arrives, so the quantity doesn't jump back to the
+     * one before the sale in between.
+     */
+    private final LongSparseArray<WrittenSale> mWrittenSales = new LongSparseArray<>();
+
+    /**
+     * Constructs a new {@link DecorAdapter}.
+     *
+     * @param context       The context
+     * @param saleQueue     The queue writing the sales
+     * @param clickListener The listener of the clicks on the decors
+     */
+    public DecorAdapter(Context context, DecorSaleQueue saleQueue, OnDecorClickListener clickListener) {
+        mContext = context;
+        mSaleQueue = saleQueue;
+        mSaleQueue.setListener(this);
+        mClickListener = clickListener;
+        mImageLoader = new DecorImageLoader(context);
+        mThumbnailSize = pickThumbnailSize(
+                context.getResources().getDimensionPixelSize(R.dimen.size_listview_thumbnail));
+        Locale locale = context.getResources().getConfiguration().locale;
+        mFreeText = context.getString(R.string.catalog_price_free);
+        mPriceTemplate = new NumberTemplate(context.getString(R.string.catalog_price_currency_pln), locale);
+        mQuantityTemplate = new NumberTemplate(context.getString(R.string.catalog_quantity_label), locale);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Returns the smallest generated thumbnail size which covers the given size in pixels,
+     * or the largest one if none does.
+     */
+    private static int pickThumbnailSize(int sizePixels) {
+        for (int size : DecorEntry.THUMBNAIL_SIZES) {
+            if (size >= sizePixels) {
+                return size;
+            }
+        }
+        return DecorEntry.THUMBNAIL_SIZES[DecorEntry.THUMBNAIL_SIZES.length - 1];
+    }
+
+    /**
+     * Shows the given snapshots. The differences to the shown ones are computed in the background
+     * and dispatched as changes of single items; a list submitted meanwhile replaces this one.
+     *
+     * @param rows immutable snapshots of the decors to show
+     */
+    public void submitRows(final List<DecorRow> rows) {
+        final int generation = ++mGeneration;
+        final List<DecorRow> oldRows = mRows;
+
+        // There is nothing to compare with an empty list
+        if (oldRows.isEmpty() || rows.isEmpty()) {
+            mRows = rows;
+            dropHiddenSales();
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new RowsDiff(oldRows, rows), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mRows = rows;
+                            dropHiddenSales();
+                            result.dispatchUpdatesTo(DecorAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Forgets the written sales of the decors which are not shown anymore. Their next snapshots
+     * are loaded after the sales.
+     */
+    private void dropHiddenSales() {
+        for (int i = mWrittenSales.size() - 1; i >= 0; i--) {
+            if (findPosition(mWrittenSales.keyAt(i)) == RecyclerView.NO_POSITION) {
+                mWrittenSales.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the decor with the given ID, or {@link RecyclerView#NO_POSITION}.
+     */
+    private int findPosition(long decorId) {
+        for (int i = 0; i < mRows.size(); i++) {
+            if (mRows.get(i).id == decorId) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Returns the quantity of the decor in the given snapshot shown to the user: the one left
+     * by its written sales if the snapshot predates them, less its taps not written yet.
+     */
+    private int getShownQuantity(DecorRow row) {
+        int quantity = row.quantity;
+        WrittenSale sale = mWrittenSales.get(row.id);
+        if (sale != null) {
+            if (sale.isOutdated(row)) {
+                mWrittenSales.remove(row.id);
+            } else {
+                quantity = sale.quantity;
+            }
+        }
+        return quantity - mSaleQueue.getPendingTaps(row.id);
+    }
+
+    /**
+     * Drops the thumbnails still being decoded. Call it when the list goes away.
+     */
+    public void release() {
+        mImageLoader.destroy();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).id;
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public DecorViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in item_decor.xml
+        View view = LayoutInflater.from(mContext).inflate(R.layout.item_decor, parent, false);
+        return new DecorViewHolder(view);
+    }
+
+    /**
+     * This method binds the decor data (in the snapshot at the given position) to the given
+     * list item layout. For example, the name for the current decor can be set on the name TextView
+     * in the list item layout.
+     * <p>
+     * It runs for every item scrolled into view, so it doesn't allocate: the numbers are
+     * formatted into the buffers of the holder, the snapshot keeps the URI and cache key of its
+     * thumbnail, and the placeholder drawable of the holder is reused.
+     */
+    @Override
+    public void onBindViewHolder(DecorViewHolder holder, int position) {
+        DecorRow row = mRows.get(position);
+
+        // Update the price TextView with the given decor value. If the decor price equals 0,
+        // then use default text "FREE".
+        if (row.price == 0) {
+            holder.priceTextView.setText(mFreeText);
+        } else {
+            int length = mPriceTemplate.format(row.price, holder.priceBuffer);
+            holder.priceTextView.setText(holder.priceBuffer, 0, length);
+        }
+
+        // Show the thumbnail of the decor's image, or the placeholder if there is none (yet).
+        // The view keeps its image as long as the thumbnail doesn't change.
+        if (!TextUtils.equals(row.thumbnailHash, holder.thumbnailHash)) {
+            holder.thumbnailHash = row.thumbnailHash;
+            // The placeholder stays until the thumbnail is decoded, unless it's in memory already
+            ImageView view = holder.thumbnailImageView;
+            view.setImageDrawable(holder.placeholder);
+            if (row.thumbnailHash == null) {
+                mImageLoader.cancel(view);
+            } else {
+                mImageLoader.load(row.getThumbnailUri(mThumbnailSize), row.id, DecorImageCache.VARIANT_THUMBNAIL,
+                        row.thumbnailHash,
+                        row.getThumbnailKey(mImageLoader.getTargetWidth(view), mImageLoader.getTargetHeight(view)),
+                        view, null);
+            }
+        }
+
+        // Update the TextViews with the attributes for the current decor
+        holder.nameTextView.setText(row.name);
+        int length = mQuantityTemplate.format(getShownQuantity(row), holder.quantityBuffer);
+        holder.quantityTextView.setText(holder.quantityBuffer, 0, length);
+    }
+
+    /**
+     * Sells one piece of the decor at the given position. The quantity is updated right away,
+     * the sale is written by the queue.
+     */
+    private void sellDecor(int position) {
+        DecorRow row = mRows.get(position);
+        if (getShownQuantity(row) > 0) {
+            mSaleQueue.sell(row.id);
+            notifyItemChanged(position);
+        } else {
+            // The sale is impossible, display a toast.
+            Toast.makeText(mContext, mContext.getString(R.string.catalog_sale_quantity_invalid),
+                    Toast.LENGTH_LONG).show();
+        }
+
+        Log.d("onClick", "_ID of decor in DECORS database: " + row.id);
+    }
+
+    /**
+     * Shows the outcome of a sale if not all taps could be sold, and keeps showing the quantity
+     * it left until the snapshot of the decor catches up.
+     */
+    @Override
+    public void onSaleWritten(long decorId, int taps, int sold, int quantity) {
+        if (quantity < 0) {
+            // If there is no such decor, then there was an error with the sale.
+            Toast.makeText(mContext, mContext.getString(R.string.catalog_sale_update_quantity_failed),
+                    Toast.LENGTH_SHORT).show();
+        } else if (sold < taps) {
+            // There was not enough in stock for all taps.
+            Toast.makeText(mContext, mContext.getString(R.string.catalog_sale_quantity_invalid),
+                    Toast.LENGTH_LONG).show();
+        }
+
+        int position = findPosition(decorId);
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        if (quantity >= 0) {
+            // The snapshot the sales were made on stays the one to outdate, until a newer one is shown
+            DecorRow row = mRows.get(position);
+            WrittenSale previousSale = mWrittenSales.get(decorId);
+            if (previousSale != null && !previousSale.isOutdated(row)) {
+                row = previousSale.row;
+            }
+            mWrittenSales.put(decorId, new WrittenSale(row, quantity));
+        }
+        // The taps were shown sold already, unless some of them couldn't be
+        if (sold < taps) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /**
+     * Quantity left by the sales of a decor, made on the given snapshot
+     */
+    private static class WrittenSale {
+        final DecorRow row;
+        final int quantity;
+
+        WrittenSale(DecorRow row, int quantity) {
+            this.row = row;
+            this.quantity = quantity;
+        }
+
+        /**
+         * Returns whether the given snapshot of the decor was loaded after the sales, i.e. it's
+         * another snapshot than the one they were made on, with another quantity.
+         */
+        boolean isOutdated(DecorRow newRow) {
+            return newRow != row && newRow.quantity != row.quantity;
+        }
+    }
+
+    /**
+     * Compares two lists of snapshots. Decors are the same items when their IDs are equal.
+     */
+    private static class RowsDiff extends DiffUtil.Callback {
+
+        private final List<DecorRow> mOldRows;
+        private final List<DecorRow> mNewRows;
+
+        RowsDiff(List<DecorRow> oldRows, List<DecorRow> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).id == mNewRows.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).equals(mNewRows.get(newItemPosition));
+        }
+    }
+
+    class DecorViewHolder extends RecyclerView.ViewHolder {
+        final ImageView thumbnailImageView;
+        final TextView nameTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final Button saleButton;
+        String thumbnailHash;
+
+        /**
+         * Drawable shown until the thumbnail is decoded, the one set by the layout
+         */
+        final Drawable placeholder;
+
+        /**
+         * Buffers of the formatted numbers. The TextViews keep showing them, so they're
+         * never shared between holders.
+         */
+        final char[] priceBuffer = new char[mPriceTemplate.getMaxLength()];
+        final char[] quantityBuffer = new char[mQuantityTemplate.getMaxLength()];
+
+        DecorViewHolder(View view) {
+            super(view);
+            // Store Views from item_decor layout in the holder to use them in the future.
+            thumbnailImageView = (ImageView) view.findViewById(R.id.thumbnail);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            priceTextView = (TextView) view.findViewById(R.id.price);
+            quantityTextView = (TextView) view.findViewById(R.id.quantity);
+            saleButton = (Button) view.findViewById(R.id.sale_button);
+            placeholder = thumbnailImageView.getDrawable();
+
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        mClickListener.onDecorClick(mRows.get(position).id);
+                    }
+                }
+            });
+
+            // Set listener on SALE button to sell one piece of the decor shown in the list item.
+            saleButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        sellDecor(position);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.android.decorsinventory;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decoded decor images shared by the whole app, in two levels: the bitmaps in memory,
+ * bounded by their byte count, and the bitmaps encoded again on disk, bounded by the size of
+ * their files. The least recently used images are evicted first from both.
+ * <p>
+ * Images are keyed by the decor's ID, the variant they were decoded from (the thumbnail or the
+ * master image), the hash of the image and the size they were decoded to. The hash changes with
+ * every edit of the image, so an edited image is never read from the cache; putting it removes
+ * the older images of the same variant of the decor, at every size, from the disk. A thumbnail
+ * and a master image decoded to the same size are never mistaken for each other.
+ * <p>
+ * The memory level can be used on any thread, the disk level should never be used on the
+ * main thread. The memory level is emptied when the system asks the app to trim its memory.
+ */
+public class DecorImageCache {
+
+    private static final String LOG_TAG = DecorImageCache.class.getSimpleName();
+
+    /**
+     * Part of the heap available to the app the cached bitmaps may take
+     */
+    private static final int MEMORY_CACHE_HEAP_DIVISOR = 8;
+
+    /**
+     * Maximum size of the files of the disk level
+     */
+    private static final long DISK_CACHE_SIZE_BYTES = 20 * 1024 * 1024;
+
+    /**
+     * Quality the images are encoded with on disk. Variants are only decoded for the screen,
+     * so they don't need more.
+     */
+    private static final int DISK_CACHE_QUALITY = 90;
+
+    /**
+     * Variants of the images, by the source they're decoded from: the generated thumbnail
+     * or the master image
+     */
+    public static final String VARIANT_THUMBNAIL = "thumbnail";
+    public static final String VARIANT_MASTER = "master";
+
+    private static DecorImageCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDirectory;
+
+    /**
+     * Size of the files in the directory, -1 until they're listed. Guarded by this cache.
+     */
+    private long mDiskSizeBytes = -1;
+
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Returns the image cache of the app.
+     */
+    public static synchronized DecorImageCache getInstance(Context context) {
+        if (sInstance == null) {
+            int maxSizeBytes = (int) Math.min(Integer.MAX_VALUE,
+                    Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_DIVISOR);
+            final DecorImageCache cache = new DecorImageCache(maxSizeBytes,
+                    new File(context.getApplicationContext().getCacheDir(), "decor_images"));
+            // The cache lives as long as the app, so it listens to the whole app
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    cache.trimMemory(level);
+                }
+
+                @Override
+                public void onLowMemory() {
+                    cache.trimMemory();
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+            });
+            sInstance = cache;
+        }
+        return sInstance;
+    }
+
+    DecorImageCache(int maxMemorySizeBytes, File directory) {
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemorySizeBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the key of the image with the given hash of the given decor, decoded from the given
+     * variant to fit the given size.
+     *
+     * @param variant {@link #VARIANT_THUMBNAIL} or {@link #VARIANT_MASTER}
+     */
+    public static String buildKey(long decorId, String variant, String imageHash, int width, int height) {
+        return buildPrefix(decorId, variant) + imageHash + "_" + width + "x" + height;
+    }
+
+    /**
+     * Returns the start of the keys of the images of the given decor decoded from the given variant.
+     */
+    private static String buildPrefix(long decorId, String variant) {
+        return decorId + "_" + variant + "_";
+    }
+
+    /**
+     * Returns the bitmap with the given key from memory, or null if it's not there.
+     */
+    public Bitmap getFromMemory(String key) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            mMemoryHitCount.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the bitmap with the given key from disk, and keeps it in memory, or returns null
+     * if it's not there either. Only misses of both levels should be counted with
+     * {@link #countMiss()}.
+     */
+    public Bitmap getFromDisk(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            // Broken by a write which didn't finish, it will be written again
+            Log.w(LOG_TAG, "Dropping unreadable cached image " + key);
+            synchronized (this) {
+                deleteFile(file);
+            }
+            return null;
+        }
+        // Used now, so it's evicted last
+        file.setLastModified(System.currentTimeMillis());
+        mDiskHitCount.incrementAndGet();
+        mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Counts a load which found its image in neither level.
+     */
+    public void countMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    /**
+     * Keeps the given bitmap in memory and, if asked to, encodes it to disk, replacing the
+     * images of the same decor and variant with other hashes there.
+     *
+     * @param variant {@link #VARIANT_THUMBNAIL} or {@link #VARIANT_MASTER}
+     * @param toDisk whether the bitmap should be written to disk; worth it when it's much
+     *               cheaper to decode than its source
+     */
+    public void put(long decorId, String variant, String imageHash, String key, Bitmap bitmap, boolean toDisk) {
+        mMemoryCache.put(key, bitmap);
+        if (!toDisk) {
+            return;
+        }
+
+        synchronized (this) {
+            ensureDiskSize();
+            String decorPrefix = buildPrefix(decorId, variant);
+            String imagePrefix = decorPrefix + imageHash + "_";
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().startsWith(decorPrefix) && !file.getName().startsWith(imagePrefix)) {
+                        deleteFile(file);
+                    }
+                }
+            }
+
+            File file = getFile(key);
+            File temporaryFile = new File(mDirectory, file.getName() + ".tmp");
+            try {
+                OutputStream out = new FileOutputStream(temporaryFile);
+                try {
+                    bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                            DISK_CACHE_QUALITY, out);
+                } finally {
+                    out.close();
+                }
+                deleteFile(file);
+                if (!temporaryFile.renameTo(file)) {
+                    throw new IOException("Cannot rename " + temporaryFile);
+                }
+                mDiskSizeBytes += file.length();
+            } catch (IOException e) {
+                // The image is still cached in memory
+                Log.e(LOG_TAG, "Cannot write cached image " + key, e);
+                temporaryFile.delete();
+            }
+            trimDisk();
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, key);
+    }
+
+    /**
+     * Lists the files of the disk level, the first time it's used. Guarded by this cache.
+     */
+    private void ensureDiskSize() {
+        if (mDiskSizeBytes >= 0) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Cannot create image cache directory " + mDirectory);
+        }
+        mDiskSizeBytes = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                mDiskSizeBytes += file.length();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk level fits its size. Guarded by this cache.
+     */
+    private void trimDisk() {
+        if (mDiskSizeBytes <= DISK_CACHE_SIZE_BYTES) {
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && mDiskSizeBytes > DISK_CACHE_SIZE_BYTES; i++) {
+            deleteFile(files[i]);
+        }
+    }
+
+    /**
+     * Deletes the given file of the disk level, if it exists. Guarded by this cache.
+     */
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete() && mDiskSizeBytes > 0) {
+            mDiskSizeBytes = Math.max(0, mDiskSizeBytes - length);
+        }
+    }
+
+    /**
+     * Removes all images from memory. The disk level is kept, it's cheap to read again.
+     */
+    public void trimMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Removes all images from memory if the given level of {@link ComponentCallbacks2#onTrimMemory}
+     * asks for it: when the app runs low on memory, or when it's in the background and next in
+     * line to be killed. Right after the UI is hidden the images are kept, the user may come back.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)) {
+            trimMemory();
+        }
+    }
+
+    public long getMemoryHitCount() {
+        return mMemoryHitCount.get();
+    }
+
+    public long getDiskHitCount() {
+        return mDiskHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Returns the part of the loads served by either level, from 0 to 1.
+     */
+    public double getHitRate() {
+        long hits = getMemoryHitCount() + getDiskHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the hit counts and the sizes of both levels, for the logs.
+     */
+    @Override
+    public String toString() {
+        long diskSizeBytes;
+        synchronized (this) {
+            diskSizeBytes = mDiskSizeBytes;
+        }
+        return String.format(Locale.US,
+                "%d memory hits, %d disk hits, %d misses (%.1f%% hit rate); memory %d/%d B, disk %d/%d B",
+                getMemoryHitCount(), getDiskHitCount(), getMissCount(), getHitRate() * 100,
+                mMemoryCache.size(), mMemoryCache.maxSize(), Math.max(0, diskSizeBytes), DISK_CACHE_SIZE_BYTES);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.decorsinventory;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link DecorImageChunkReader} reads the image of a decor through
+ * {@link DecorEntry#METHOD_READ_IMAGE_CHUNK}, a chunk at a time, and reassembles the chunks into
+ * a stream. Unlike a Cursor, it works for images of any size, and unlike a file descriptor, it
+ * works where only provider calls are available. {@link DecorImageLoader} reads the images still
+ * stored as BLOBs with it.
+ * <p>
+ * If the image changes while it's being read, reading fails with an {@link IOException} rather
+ * than mixing chunks of two images. Reading calls the provider, so it should never be done on
+ * the main thread.
+ */
+public class DecorImageChunkReader extends InputStream {
+
+    private final ContentResolver mResolver;
+    private final long mDecorId;
+    private final int mChunkSize;
+
+    private byte[] mChunk = new byte[0];
+    private int mChunkPosition;
+
+    /**
+     * Offset of the first byte after the current chunk
+     */
+    private long mOffset;
+
+    /**
+     * Length and hash of the image, known after the first chunk
+     */
+    private long mLength = -1;
+    private String mHash;
+
+    /**
+     * Constructs a reader of the image of the given decor, in chunks of the largest size.
+     */
+    public DecorImageChunkReader(ContentResolver resolver, long decorId) {
+        this(resolver, decorId, DecorEntry.MAX_IMAGE_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a reader of the image of the given decor, in chunks of the given size.
+     */
+    public DecorImageChunkReader(ContentResolver resolver, long decorId, int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > DecorEntry.MAX_IMAGE_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between 1 and " + DecorEntry.MAX_IMAGE_CHUNK_SIZE);
+        }
+        mResolver = resolver;
+        mDecorId = decorId;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the length of the image in bytes.
+     *
+     * @throws FileNotFoundException if the decor has no image
+     * @throws IOException           if the image cannot be read
+     */
+    public long getLength() throws IOException {
+        if (mLength < 0) {
+            readChunk();
+        }
+        return mLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] buffer = new byte[1];
+        return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        if (mChunkPosition == mChunk.length) {
+            if (mLength >= 0 && mOffset >= mLength) {
+                return -1;
+            }
+            readChunk();
+            if (mChunk.length == 0) {
+                return -1;
+            }
+        }
+
+        int length = Math.min(count, mChunk.length - mChunkPosition);
+        System.arraycopy(mChunk, mChunkPosition, buffer, offset, length);
+        mChunkPosition += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return mChunk.length - mChunkPosition;
+    }
+
+    /**
+     * Reads the chunk following the current one from the provider.
+     */
+    private void readChunk() throws IOException {
+        Bundle extras = new Bundle();
+        extras.putLong(DecorEntry.EXTRA_DECOR_ID, mDecorId);
+        extras.putLong(DecorEntry.EXTRA_OFFSET, mOffset);
+        extras.putInt(DecorEntry.EXTRA_LENGTH, mChunkSize);
+        Bundle result;
+        try {
+            result = mResolver.call(DecorEntry.CONTENT_URI, DecorEntry.METHOD_READ_IMAGE_CHUNK, null, extras);
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot read image of decor " + mDecorId, e);
+        }
+        if (result == null) {
+            throw new IOException("Cannot read image of decor " + mDecorId);
+        }
+
+        long length = result.getLong(DecorEntry.EXTRA_TOTAL_LENGTH, -1);
+        String hash = result.getString(DecorEntry.EXTRA_IMAGE_HASH);
+        if (length < 0) {
+            throw new FileNotFoundException("No image for decor " + mDecorId);
+        }
+        if (mLength >= 0 && (length != mLength || !TextUtils.equals(hash, mHash))) {
+            throw new IOException("Image of decor " + mDecorId + " changed while reading it");
+        }
+        mLength = length;
+        mHash = hash;
+
+        byte[] chunk = result.getByteArray(DecorEntry.EXTRA_CHUNK);
+        if (chunk == null || (chunk.length == 0 && mOffset < mLength)) {
+            throw new IOException("Image of decor " + mDecorId + " changed while reading it");
+        }
+        mChunk = chunk;
+        mChunkPosition = 0;
+        mOffset += chunk.length;
+    }
+}
@@ -0,0 +1,398 @@
+package com.example.android.decorsinventory;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * {@link DecorImageIngester} turns a picked image into the bytes stored with a decor. The image
+ * is read straight from its stream, subsampled while it's decoded and scaled down so that its
+ * longer side is at most the maximum dimension, then encoded with the configured format and
+ * quality. An image which needs no scaling is stored as picked if encoding it again wouldn't
+ * make it smaller.
+ * <p>
+ * Ingesting is slow, so it should never be called on the main thread. The sizes and timings
+ * of every ingested image are logged and returned in its {@link Result}.
+ */
+public class DecorImageIngester {
+
+    private static final String LOG_TAG = DecorImageIngester.class.getSimpleName();
+
+    /**
+     * Default maximum size of the longer side of the stored images, in pixels
+     */
+    public static final int DEFAULT_MAX_DIMENSION = 1600;
+
+    /**
+     * Default format and quality of the stored images
+     */
+    public static final Bitmap.CompressFormat DEFAULT_FORMAT = Bitmap.CompressFormat.JPEG;
+    public static final int DEFAULT_QUALITY = 85;
+
+    /**
+     * An ingested image, with its metrics.
+     */
+    public static class Result {
+        private final byte[] mBytes;
+        private final int mWidth;
+        private final int mHeight;
+        private final long mSourceByteCount;
+        private final int mSourceWidth;
+        private final int mSourceHeight;
+        private final long mDecodeMillis;
+        private final long mEncodeMillis;
+        private final boolean mReencoded;
+
+        Result(byte[] bytes, int width, int height, long sourceByteCount, int sourceWidth, int sourceHeight,
+               long decodeMillis, long encodeMillis, boolean reencoded) {
+            mBytes = bytes;
+            mWidth = width;
+            mHeight = height;
+            mSourceByteCount = sourceByteCount;
+            mSourceWidth = sourceWidth;
+            mSourceHeight = sourceHeight;
+            mDecodeMillis = decodeMillis;
+            mEncodeMillis = encodeMillis;
+            mReencoded = reencoded;
+        }
+
+        /**
+         * Returns the encoded image to store.
+         */
+        public byte[] getBytes() {
+            return mBytes;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * Returns the size of the picked image, in bytes.
+         */
+        public long getSourceByteCount() {
+            return mSourceByteCount;
+        }
+
+        public int getSourceWidth() {
+            return mSourceWidth;
+        }
+
+        public int getSourceHeight() {
+            return mSourceHeight;
+        }
+
+        /**
+         * Returns the size of the stored image, in bytes.
+         */
+        public int getStoredByteCount() {
+            return mBytes.length;
+        }
+
+        /**
+         * Returns the time taken to decode and scale the picked image.
+         */
+        public long getDecodeMillis() {
+            return mDecodeMillis;
+        }
+
+        /**
+         * Returns the time taken to encode the image.
+         */
+        public long getEncodeMillis() {
+            return mEncodeMillis;
+        }
+
+        /**
+         * Returns whether the stored image was encoded again, or is the picked one.
+         */
+        public boolean isReencoded() {
+            return mReencoded;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final int mMaxDimension;
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+
+    /**
+     * Constructs a new instance of {@link DecorImageIngester} with the default maximum
+     * dimension, format and quality.
+     */
+    public DecorImageIngester(Context context) {
+        this(context, DEFAULT_MAX_DIMENSION, DEFAULT_FORMAT, DEFAULT_QUALITY);
+    }
+
+    /**
+     * Constructs a new instance of {@link DecorImageIngester}.
+     *
+     * @param maxDimension maximum size of the longer side of the stored images, in pixels
+     * @param format       format the images are encoded with, JPEG or WEBP
+     * @param quality      quality the images are encoded with, from 0 to 100
+     */
+    public DecorImageIngester(Context context, int maxDimension, Bitmap.CompressFormat format, int quality) {
+        if (maxDimension <= 0) {
+            throw new IllegalArgumentException("Maximum dimension must be positive number");
+        }
+        if (format != Bitmap.CompressFormat.JPEG && format != Bitmap.CompressFormat.WEBP) {
+            throw new IllegalArgumentException("Unsupported image format " + format);
+        }
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("Quality must be between 0 and 100");
+        }
+        mResolver = context.getApplicationContext().getContentResolver();
+        mMaxDimension = maxDimension;
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * Reads, scales down and encodes the image with the given content URI.
+     *
+     * @throws IOException if the image cannot be read or decoded
+     */
+    public Result ingest(Uri source) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+
+        // Read the bounds first, so only as many pixels as needed are decoded. The decoder
+        // only reads the header of the image.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream in = open(source);
+        try {
+            BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            throw new IOException("Cannot decode image " + source);
+        }
+        String sourceType = options.outMimeType;
+
+        int longerSide = Math.max(sourceWidth, sourceHeight);
+        options.inSampleSize = DecorImageLoader.calculateInSampleSize(longerSide, longerSide,
+                mMaxDimension, mMaxDimension);
+        options.inJustDecodeBounds = false;
+        boolean scaled = options.inSampleSize > 1 || longerSide > mMaxDimension;
+        // An image which may be kept as picked is copied while it's decoded, so it's read only once
+        boolean keepable = !scaled && getMimeType(mFormat).equals(sourceType);
+        SourceInputStream sourceIn = openSource(source, keepable);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(sourceIn, null, options);
+            sourceIn.finish();
+        } finally {
+            sourceIn.close();
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode image " + source);
+        }
+        long sourceByteCount = sourceIn.getByteCount();
+
+        try {
+            bitmap = scaleDown(bitmap);
+            long decoded = SystemClock.elapsedRealtime();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!bitmap.compress(mFormat, mQuality, out)) {
+                throw new IOException("Cannot encode image " + source);
+            }
+            byte[] bytes = out.toByteArray();
+            boolean reencoded = true;
+            long encoded = SystemClock.elapsedRealtime();
+
+            // Encoding a full size image again only loses quality, unless it makes it smaller
+            if (keepable && bytes.length >= sourceByteCount) {
+                bytes = sourceIn.getBytes();
+                reencoded = false;
+            }
+
+            Result result = new Result(bytes, bitmap.getWidth(), bitmap.getHeight(), sourceByteCount,
+                    sourceWidth, sourceHeight, decoded - start, encoded - decoded, reencoded);
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "Ingested %dx%d image of %d B as %dx%d %s of %d B (%s, quality %d), decode %d ms, encode %d ms",
+                    sourceWidth, sourceHeight, result.getSourceByteCount(), result.getWidth(), result.getHeight(),
+                    reencoded ? mFormat : sourceType, result.getStoredByteCount(),
+                    reencoded ? "re-encoded" : "kept", mQuality, result.getDecodeMillis(), result.getEncodeMillis()));
+            return result;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Returns the given bitmap scaled down so its longer side is at most the maximum dimension,
+     * recycling the given one, or the given bitmap if it's small enough.
+     */
+    private Bitmap scaleDown(Bitmap bitmap) {
+        int longerSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longerSide <= mMaxDimension) {
+            return bitmap;
+        }
+        float scale = (float) mMaxDimension / longerSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    private static String getMimeType(Bitmap.CompressFormat format) {
+        return format == Bitmap.CompressFormat.WEBP ? "image/webp" : "image/jpeg";
+    }
+
+    /**
+     * Opens the image with the given URI for the full decode. The size of the image is taken
+     * from its descriptor when the provider knows it, otherwise it's counted while reading.
+     *
+     * @param copy whether the bytes read are kept, to be stored as picked
+     */
+    private SourceInputStream openSource(Uri source, boolean copy) throws IOException {
+        AssetFileDescriptor descriptor = mResolver.openAssetFileDescriptor(source, "r");
+        if (descriptor == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        InputStream in;
+        try {
+            in = descriptor.createInputStream();
+        } catch (IOException e) {
+            descriptor.close();
+            throw e;
+        }
+        return new SourceInputStream(in, descriptor.getLength(), copy);
+    }
+
+    private InputStream open(Uri source) throws IOException {
+        InputStream in = mResolver.openInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        return in;
+    }
+
+    /**
+     * Stream of a picked image which counts the bytes read, and copies them if asked to.
+     */
+    private static class SourceInputStream extends FilterInputStream {
+        private final long mLength;
+        private final ByteArrayOutputStream mCopy;
+        private long mByteCount;
+
+        /**
+         * @param length size of the image, or {@link AssetFileDescriptor#UNKNOWN_LENGTH}
+         * @param copy   whether the bytes read are kept
+         */
+        SourceInputStream(InputStream in, long length, boolean copy) {
+            super(in);
+            mLength = length;
+            if (copy) {
+                mCopy = length > 0 && length <= Integer.MAX_VALUE
+                        ? new ByteArrayOutputStream((int) length) : new ByteArrayOutputStream();
+            } else {
+                mCopy = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mByteCount++;
+                if (mCopy != null) {
+                    mCopy.write(b);
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mByteCount += count;
+                if (mCopy != null) {
+                    mCopy.write(buffer, offset, count);
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still be copied, so they're read
+            if (mCopy != null) {
+                byte[] buffer = new byte[(int) Math.min(n, 8192)];
+                int count = read(buffer, 0, buffer.length);
+                return Math.max(count, 0);
+            }
+            long skipped = super.skip(n);
+            mByteCount += skipped;
+            return skipped;
+        }
+
+        /**
+         * Bytes read again after a reset would be counted and copied twice, the decoder
+         * buffers the stream itself when it can't be marked.
+         */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("Mark not supported");
+        }
+
+        /**
+         * Reads the rest of the image after the decoder stopped, if the bytes are copied or
+         * the size of the image isn't known.
+         */
+        void finish() throws IOException {
+            if (mCopy == null && mLength != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                return;
+            }
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Keep reading
+            }
+        }
+
+        /**
+         * Returns the size of the image, in bytes.
+         */
+        long getByteCount() {
+            return mCopy == null && mLength != AssetFileDescriptor.UNKNOWN_LENGTH ? mLength : mByteCount;
+        }
+
+        /**
+         * Returns the bytes of the image, if they're copied.
+         */
+        byte[] getBytes() {
+            return mCopy.toByteArray();
+        }
+    }
+}
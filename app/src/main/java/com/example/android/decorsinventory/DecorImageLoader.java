@@ -0,0 +1,331 @@
+package com.example.android.decorsinventory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link DecorImageLoader} decodes images into {@link ImageView}s in the background. The bounds
+ * of an image are read first, so it's decoded subsampled to about the size of the view instead
+ * of at full resolution. Images of decors are kept in the {@link DecorImageCache}, so showing
+ * them again doesn't decode them again. Images of decors not moved to the image store yet are read
+ * from their BLOB through {@link DecorImageChunkReader}, which fails rather than mixing two images
+ * if the image is moved or edited meanwhile.
+ * <p>
+ * Bitmaps are only set on the main thread, and only if the view still waits for them: loading
+ * another image into the view, {@link #cancel(ImageView)} or {@link #destroy()} drops the result
+ * of the previous load. Call {@link #destroy()} when the views go away, so no bitmap is delivered
+ * to a destroyed activity. All methods must be called on the main thread.
+ */
+public class DecorImageLoader {
+
+    private static final String LOG_TAG = DecorImageLoader.class.getSimpleName();
+
+    /**
+     * Single thread decoding the images, so only one full image is read at once
+     */
+    private static final ExecutorService sDecodeExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives the outcome of a load.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the main thread once the bitmap is set on the view, or with a null bitmap
+         * if the image couldn't be decoded. Not called for cancelled loads.
+         */
+        void onImageLoaded(ImageView view, Bitmap bitmap);
+    }
+
+    private final Context mContext;
+    private final DecorImageCache mCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Loads running for the views, until they deliver their bitmap or are cancelled
+     */
+    private final Map<ImageView, Request> mRequests = new HashMap<>();
+
+    private boolean mDestroyed;
+
+    public DecorImageLoader(Context context) {
+        mContext = context.getApplicationContext();
+        mCache = DecorImageCache.getInstance(mContext);
+    }
+
+    /**
+     * Decodes the image with the given content URI into the given view, replacing any load
+     * running for the view.
+     *
+     * @param listener notified when the image is loaded, may be null
+     */
+    public void load(Uri source, ImageView view, Listener listener) {
+        load(source, -1, null, null, view, listener);
+    }
+
+    /**
+     * Shows the image with the given hash of the given decor in the given view, from the cache
+     * if it's there or decoded from the given content URI otherwise, replacing any load running
+     * for the view. An image cached in memory is shown right away. Without a hash, the image of
+     * the decor is not moved to the image store yet and is read in chunks from its BLOB.
+     *
+     * @param variant  {@link DecorImageCache#VARIANT_THUMBNAIL} or {@link DecorImageCache#VARIANT_MASTER},
+     *                 whichever the URI reads
+     * @param listener notified when the image is loaded, may be null
+     */
+    public void load(Uri source, long decorId, String variant, String imageHash, ImageView view,
+                     Listener listener) {
+        String key = imageHash == null ? null
+                : DecorImageCache.buildKey(decorId, variant, imageHash, getTargetWidth(view), getTargetHeight(view));
+        load(source, decorId, variant, imageHash, key, view, listener);
+    }
+
+    /**
+     * Like {@link #load(Uri, long, String, String, ImageView, Listener)}, with the cache key of
+     * the image built by the caller, so showing an image cached in memory doesn't allocate. The
+     * key must be built by {@link DecorImageCache#buildKey} from the variant and the target size
+     * of the view.
+     *
+     * @param key      cache key of the image, null if the image is not stored (yet)
+     * @param listener notified when the image is loaded, may be null
+     */
+    public void load(Uri source, long decorId, String variant, String imageHash, String key, ImageView view,
+                     Listener listener) {
+        if (mDestroyed) {
+            throw new IllegalStateException("Image loader is destroyed");
+        }
+        cancel(view);
+
+        if (key != null) {
+            Bitmap bitmap = mCache.getFromMemory(key);
+            if (bitmap != null) {
+                view.setImageBitmap(bitmap);
+                if (listener != null) {
+                    listener.onImageLoaded(view, bitmap);
+                }
+                return;
+            }
+        }
+
+        Request request = new Request(source, decorId, variant, imageHash, key, view,
+                getTargetWidth(view), getTargetHeight(view), listener);
+        mRequests.put(view, request);
+        request.future = sDecodeExecutor.submit(request);
+    }
+
+    /**
+     * Drops the load running for the given view, if any.
+     */
+    public void cancel(ImageView view) {
+        Request request = mRequests.remove(view);
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Drops all running loads. No image can be loaded afterwards.
+     */
+    public void destroy() {
+        mDestroyed = true;
+        for (Request request : mRequests.values()) {
+            request.cancel();
+        }
+        mRequests.clear();
+    }
+
+    /**
+     * Returns the width images are decoded to for the given view.
+     */
+    public int getTargetWidth(ImageView view) {
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        return targetSize(view.getWidth(), params == null ? 0 : params.width,
+                mContext.getResources().getDisplayMetrics().widthPixels);
+    }
+
+    /**
+     * Returns the height images are decoded to for the given view.
+     */
+    public int getTargetHeight(ImageView view) {
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        return targetSize(view.getHeight(), params == null ? 0 : params.height,
+                mContext.getResources().getDisplayMetrics().heightPixels);
+    }
+
+    /**
+     * Returns the size the image should be decoded to on one side: the laid out size of the view,
+     * its fixed size from the layout, or the size of the screen.
+     */
+    private static int targetSize(int laidOutSize, int layoutSize, int screenSize) {
+        if (laidOutSize > 0) {
+            return laidOutSize;
+        }
+        if (layoutSize > 0) {
+            return layoutSize;
+        }
+        return screenSize;
+    }
+
+    /**
+     * Returns the largest power of 2 the image of the given size can be subsampled by,
+     * so that it still covers the requested size on both sides.
+     */
+    public static int calculateInSampleSize(int width, int height, int requestedWidth, int requestedHeight) {
+        if (requestedWidth <= 0 || requestedHeight <= 0) {
+            throw new IllegalArgumentException("Requested size must be positive");
+        }
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= requestedWidth && height / (inSampleSize * 2) >= requestedHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Decodes the image with the given URI subsampled to about the given size, or returns null
+     * if it cannot be decoded. The image is read twice: once for its bounds, once for the pixels.
+     * The given options hold the subsampling afterwards.
+     *
+     * @param blobDecorId ID of the decor whose image is read in chunks from its BLOB instead of
+     *                    from the URI, or -1
+     */
+    private Bitmap decode(Uri source, long blobDecorId, int width, int height, BitmapFactory.Options options) {
+        try {
+            options.inJustDecodeBounds = true;
+            decodeStream(source, blobDecorId, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.e(LOG_TAG, "Cannot read bounds of image " + source);
+                return null;
+            }
+
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+            options.inJustDecodeBounds = false;
+            return decodeStream(source, blobDecorId, options);
+        } catch (FileNotFoundException e) {
+            // A decor without an image has no BLOB either, that's not an error
+            if (blobDecorId < 0) {
+                Log.e(LOG_TAG, "Cannot find image " + source, e);
+            }
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Cannot read image " + source, e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            // Even subsampled, the image doesn't fit, show it as missing rather than crash
+            Log.e(LOG_TAG, "Not enough memory to decode image " + source, e);
+            return null;
+        }
+    }
+
+    private Bitmap decodeStream(Uri source, long blobDecorId, BitmapFactory.Options options) throws IOException {
+        InputStream in = blobDecorId >= 0 ? new DecorImageChunkReader(mContext.getContentResolver(), blobDecorId)
+                : mContext.getContentResolver().openInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A single load of an image into a view
+     */
+    private class Request implements Runnable {
+        final Uri source;
+        final long decorId;
+        final String variant;
+        final String imageHash;
+        final String key;
+        final ImageView view;
+        final int width;
+        final int height;
+        final Listener listener;
+        Future<?> future;
+        volatile boolean cancelled;
+
+        Request(Uri source, long decorId, String variant, String imageHash, String key, ImageView view,
+                int width, int height, Listener listener) {
+            this.source = source;
+            this.decorId = decorId;
+            this.variant = variant;
+            this.imageHash = imageHash;
+            this.key = key;
+            this.view = view;
+            this.width = width;
+            this.height = height;
+            this.listener = listener;
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadBitmap();
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have moved on to another image meanwhile
+                    if (cancelled || mRequests.get(view) != Request.this) {
+                        return;
+                    }
+                    mRequests.remove(view);
+                    if (bitmap != null) {
+                        view.setImageBitmap(bitmap);
+                    }
+                    if (listener != null) {
+                        listener.onImageLoaded(view, bitmap);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Reads the image from the disk cache or decodes it, and caches it.
+         */
+        private Bitmap loadBitmap() {
+            if (key == null) {
+                // The image of a decor without a hash is still a BLOB
+                return decode(source, decorId, width, height, new BitmapFactory.Options());
+            }
+            Bitmap bitmap = mCache.getFromDisk(key);
+            if (bitmap != null) {
+                return bitmap;
+            }
+            mCache.countMiss();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            bitmap = decode(source, -1, width, height, options);
+            if (bitmap != null) {
+                // Only subsampled images are cheaper to decode from the disk cache than from the source
+                mCache.put(decorId, variant, imageHash, key, bitmap, options.inSampleSize > 1);
+            }
+            return bitmap;
+        }
+    }
+}
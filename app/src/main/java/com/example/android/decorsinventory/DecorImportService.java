@@ -0,0 +1,136 @@
+package com.example.android.decorsinventory;
+
+import android.app.IntentService;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.OpenableColumns;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.decorsinventory.data.DecorImporter;
+
+import java.io.IOException;
+
+/**
+ * {@link DecorImportService} imports the decors of a CSV or JSON file with {@link DecorImporter},
+ * one file after another. The progress and the outcome are shown in notifications, with the
+ * first invalid records; all of them are logged.
+ */
+public class DecorImportService extends IntentService {
+
+    private static final String LOG_TAG = DecorImportService.class.getSimpleName();
+
+    private static final String CHANNEL_ID = "import";
+
+    private static final int NOTIFICATION_PROGRESS_ID = 1;
+    private static final int NOTIFICATION_RESULT_ID = 2;
+
+    /**
+     * Number of invalid records listed in the notification of the outcome
+     */
+    private static final int MAX_SHOWN_ERRORS = 5;
+
+    private NotificationManager mNotificationManager;
+
+    public DecorImportService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Imports the decors of the file with the given content URI in the background.
+     */
+    public static void start(Context context, Uri source) {
+        Intent intent = new Intent(context, DecorImportService.class);
+        intent.setData(source);
+        // Pass the permission to read the file on to the service
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            mNotificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.import_channel_name), NotificationManager.IMPORTANCE_LOW));
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri source = intent.getData();
+        String name = queryDisplayName(source);
+        DecorImporter.Format format = DecorImporter.detectFormat(getContentResolver().getType(source), name);
+
+        final NotificationCompat.Builder progress = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_progress_title, name))
+                .setProgress(0, 0, true)
+                .setOngoing(true);
+        // Keep importing when the user leaves the app
+        startForeground(NOTIFICATION_PROGRESS_ID, progress.build());
+
+        final NotificationCompat.InboxStyle errors = new NotificationCompat.InboxStyle();
+        // Inserted decors, invalid records and the ones listed in the notification
+        final int[] counts = new int[3];
+        String summary;
+        try {
+            new DecorImporter(getContentResolver(), DecorImporter.DEFAULT_CHUNK_SIZE).importDecors(source, format,
+                    new DecorImporter.Listener() {
+                        @Override
+                        public void onProgress(int records, int inserted, int failed) {
+                            counts[0] = inserted;
+                            counts[1] = failed;
+                            progress.setContentText(getString(R.string.import_progress_text, records, inserted, failed));
+                            mNotificationManager.notify(NOTIFICATION_PROGRESS_ID, progress.build());
+                        }
+
+                        @Override
+                        public void onRecordError(int position, String message) {
+                            Log.w(LOG_TAG, "Skipped record " + position + ": " + message);
+                            if (counts[2]++ < MAX_SHOWN_ERRORS) {
+                                errors.addLine(getString(R.string.import_record_error, position, message));
+                            }
+                        }
+                    });
+            summary = getString(R.string.import_result_text, counts[0], counts[1]);
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to import " + source, e);
+            summary = getString(R.string.import_failed_text, counts[0], e.getMessage());
+        } finally {
+            stopForeground(true);
+        }
+
+        errors.setSummaryText(summary);
+        mNotificationManager.notify(NOTIFICATION_RESULT_ID, new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setContentTitle(getString(R.string.import_result_title, name))
+                .setContentText(summary)
+                .setStyle(counts[2] > 0 ? errors : new NotificationCompat.BigTextStyle().bigText(summary))
+                .build());
+    }
+
+    /**
+     * Returns the name of the file with the given URI, or its last segment if it has none.
+     */
+    private String queryDisplayName(Uri uri) {
+        Cursor cursor = getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME},
+                null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst() && cursor.getString(0) != null) {
+                    return cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return uri.getLastPathSegment();
+    }
+}
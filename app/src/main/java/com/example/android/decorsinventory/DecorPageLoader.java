@@ -0,0 +1,274 @@
+package com.example.android.decorsinventory;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.text.TextUtils;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link DecorPageLoader} loads snapshots of the decors page by page, in
+ * {@link DecorEntry#PAGE_SORT_ORDER}. It starts with the first page only and loads the next one
+ * when {@link #loadNextPage()} is called, so the time to show the first decors doesn't depend
+ * on how many are stored. With a search text, it loads the matching decors instead, ranked.
+ * <p>
+ * Each delivered list is an immutable snapshot of all the pages loaded so far. When a single
+ * decor is updated, only that decor is queried again; other changes query the loaded rows
+ * again at once.
+ */
+public class DecorPageLoader extends AsyncTaskLoader<List<DecorRow>> {
+
+    /**
+     * Text to search the decors for, null to list all of them
+     */
+    private final String mSearchText;
+
+    /**
+     * Maximum number of decors in a page
+     */
+    private final int mPageSize;
+
+    /**
+     * Rows loaded so far, guarded by itself
+     */
+    private final List<DecorRow> mRows = new ArrayList<>();
+
+    /**
+     * IDs of the updated decors to query again, guarded by itself
+     */
+    private final Set<Long> mPatchIds = new HashSet<>();
+
+    /**
+     * Number of pages the next load should end up with
+     */
+    private volatile int mRequestedPages = 1;
+
+    /**
+     * Whether the loaded rows are out of date and have to be queried again
+     */
+    private volatile boolean mReload = true;
+
+    /**
+     * Whether the last page was full, so there may be more decors after it
+     */
+    private volatile boolean mHasMorePages = true;
+
+    /**
+     * Rows delivered last
+     */
+    private List<DecorRow> mDeliveredRows;
+
+    private boolean mObserving;
+
+    /**
+     * Reloads the rows when decors are added or removed, or the changed ones are not known
+     */
+    private final ContentObserver mListObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mReload = true;
+            onContentChanged();
+        }
+    };
+
+    /**
+     * Queries the updated decors again
+     */
+    private final ContentObserver mChangeObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // The other changes are notified on the decors content URI as well.
+            List<String> segments = uri == null ? null : uri.getPathSegments();
+            if (segments != null && segments.size() == 3
+                    && DecorEntry.CHANGE_UPDATE.equals(segments.get(2))) {
+                synchronized (mPatchIds) {
+                    mPatchIds.add(Long.parseLong(segments.get(1)));
+                }
+                onContentChanged();
+            }
+        }
+    };
+
+    /**
+     * @param searchText text to search the decors for, or null to list all of them
+     * @param pageSize   maximum number of decors in a page
+     */
+    public DecorPageLoader(Context context, String searchText, int pageSize) {
+        super(context);
+        mSearchText = searchText;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Loads the page which follows the loaded ones, if there is any.
+     */
+    public void loadNextPage() {
+        if (mHasMorePages && mDeliveredRows != null
+                && mDeliveredRows.size() >= mRequestedPages * mPageSize) {
+            mRequestedPages++;
+            forceLoad();
+        }
+    }
+
+    @Override
+    public List<DecorRow> loadInBackground() {
+        synchronized (mRows) {
+            int requestedRows = mRequestedPages * mPageSize;
+
+            boolean reload = mReload;
+            mReload = false;
+            Set<Long> patchIds;
+            synchronized (mPatchIds) {
+                patchIds = new HashSet<>(mPatchIds);
+                mPatchIds.clear();
+            }
+            if (!reload && !patchIds.isEmpty()) {
+                reload = !patchRows(patchIds);
+            }
+            // Search results are ranked, they can't continue after the last row
+            if (!reload && mSearchText != null && mHasMorePages && mRows.size() < requestedRows) {
+                reload = true;
+            }
+
+            if (reload) {
+                // Query the rows that were shown at once, so they don't have to be paged through again
+                mRows.clear();
+                addRows(buildFirstPageUri(requestedRows), requestedRows);
+            }
+
+            while (mSearchText == null && mHasMorePages && mRows.size() < requestedRows) {
+                DecorRow lastRow = mRows.get(mRows.size() - 1);
+                addRows(DecorEntry.buildPageUri(lastRow.name, lastRow.id, mPageSize), mPageSize);
+            }
+
+            return Collections.unmodifiableList(new ArrayList<>(mRows));
+        }
+    }
+
+    private Uri buildFirstPageUri(int pageSize) {
+        if (mSearchText == null) {
+            return DecorEntry.buildPageUri(pageSize);
+        }
+        return DecorEntry.buildSearchUri(mSearchText).buildUpon()
+                .appendQueryParameter(DecorEntry.QUERY_PARAMETER_LIMIT, String.valueOf(pageSize))
+                .build();
+    }
+
+    /**
+     * Queries the page with the given URI and adds its rows to the loaded ones.
+     */
+    private void addRows(Uri uri, int pageSize) {
+        Cursor cursor = getContext().getContentResolver().query(uri, DecorRow.PROJECTION, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Failed to query " + uri);
+        }
+        try {
+            while (cursor.moveToNext()) {
+                mRows.add(DecorRow.fromCursor(cursor));
+            }
+            mHasMorePages = cursor.getCount() >= pageSize;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Queries the loaded decors with the given IDs again and replaces their rows.
+     * Returns false if a decor moved or disappeared, so all rows have to be queried again.
+     */
+    private boolean patchRows(Set<Long> ids) {
+        for (int i = 0; i < mRows.size(); i++) {
+            DecorRow row = mRows.get(i);
+            if (!ids.contains(row.id)) {
+                continue;
+            }
+            Uri uri = ContentUris.withAppendedId(DecorEntry.CONTENT_URI, row.id);
+            Cursor cursor = getContext().getContentResolver().query(uri, DecorRow.PROJECTION, null, null, null);
+            if (cursor == null) {
+                return false;
+            }
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                // The rows are ordered by name, the decor may have to move
+                DecorRow newRow = DecorRow.fromCursor(cursor);
+                if (!TextUtils.equals(row.name, newRow.name)) {
+                    return false;
+                }
+                mRows.set(i, newRow);
+            } finally {
+                cursor.close();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void deliverResult(List<DecorRow> rows) {
+        if (isReset()) {
+            return;
+        }
+        mDeliveredRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            mObserving = true;
+            getContext().getContentResolver().registerContentObserver(DecorEntry.CONTENT_URI, true, mListObserver);
+            getContext().getContentResolver().registerContentObserver(DecorEntry.CHANGES_URI, true, mChangeObserver);
+        }
+        if (mDeliveredRows != null) {
+            deliverResult(mDeliveredRows);
+        }
+        if (takeContentChanged() || mDeliveredRows == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserving) {
+            mObserving = false;
+            getContext().getContentResolver().unregisterContentObserver(mListObserver);
+            getContext().getContentResolver().unregisterContentObserver(mChangeObserver);
+        }
+        mDeliveredRows = null;
+        mReload = true;
+        mRequestedPages = 1;
+        mHasMorePages = true;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.decorsinventory;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+/**
+ * {@link DecorRow} is an immutable snapshot of a decor as it's shown in the catalog.
+ * Snapshots can be compared on any thread, which lets the catalog compute its changes
+ * in the background.
+ */
+public final class DecorRow {
+
+    /**
+     * Columns to query for the snapshots, read by {@link #fromCursor(Cursor)}
+     */
+    public static final String[] PROJECTION = {
+            DecorEntry._ID,
+            DecorEntry.COLUMN_DECOR_NAME,
+            DecorEntry.COLUMN_DECOR_PRICE,
+            DecorEntry.COLUMN_DECOR_QUANTITY,
+            DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH
+    };
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_PRICE = 2;
+    private static final int COLUMN_QUANTITY = 3;
+    private static final int COLUMN_THUMBNAIL_HASH = 4;
+
+    public final long id;
+    public final String name;
+    public final double price;
+    public final int quantity;
+    public final String thumbnailHash;
+
+    /**
+     * URI and cache key of the thumbnail, built the first time the snapshot is bound, so binding
+     * it again doesn't allocate. Only used on the main thread.
+     */
+    private Uri mThumbnailUri;
+    private int mThumbnailSize;
+    private String mThumbnailKey;
+    private int mThumbnailKeyWidth;
+    private int mThumbnailKeyHeight;
+
+    public DecorRow(long id, String name, double price, int quantity, String thumbnailHash) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.thumbnailHash = thumbnailHash;
+    }
+
+    /**
+     * Reads the snapshot of the current row of a cursor queried with {@link #PROJECTION}.
+     */
+    public static DecorRow fromCursor(Cursor cursor) {
+        return new DecorRow(
+                cursor.getLong(COLUMN_ID),
+                cursor.getString(COLUMN_NAME),
+                cursor.getDouble(COLUMN_PRICE),
+                cursor.getInt(COLUMN_QUANTITY),
+                cursor.getString(COLUMN_THUMBNAIL_HASH));
+    }
+
+    /**
+     * Returns the content URI of the thumbnail of the given size, see
+     * {@link DecorEntry#buildThumbnailUri(String, int)}. The decor must have a thumbnail.
+     */
+    Uri getThumbnailUri(int size) {
+        if (mThumbnailUri == null || mThumbnailSize != size) {
+            mThumbnailUri = DecorEntry.buildThumbnailUri(thumbnailHash, size);
+            mThumbnailSize = size;
+        }
+        return mThumbnailUri;
+    }
+
+    /**
+     * Returns the key the thumbnail is cached with when it's decoded to the given size, see
+     * {@link DecorImageCache#buildKey}. The decor must have a thumbnail.
+     */
+    String getThumbnailKey(int width, int height) {
+        if (mThumbnailKey == null || mThumbnailKeyWidth != width || mThumbnailKeyHeight != height) {
+            mThumbnailKey = DecorImageCache.buildKey(id, DecorImageCache.VARIANT_THUMBNAIL, thumbnailHash, width, height);
+            mThumbnailKeyWidth = width;
+            mThumbnailKeyHeight = height;
+        }
+        return mThumbnailKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DecorRow)) {
+            return false;
+        }
+        DecorRow row = (DecorRow) o;
+        return id == row.id
+                && Double.compare(price, row.price) == 0
+                && quantity == row.quantity
+                && TextUtils.equals(name, row.name)
+                && TextUtils.equals(thumbnailHash, row.thumbnailHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.decorsinventory;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+/**
+ * {@link DecorSaleQueue} writes the sales of decors on a background thread. Taps on the same
+ * decor within {@link #DEFAULT_MERGE_WINDOW_MILLIS} of the first one are merged and sold
+ * with a single provider call, so a burst of taps costs one commit and one catalog reload.
+ * <p>
+ * Taps stay pending until their sale is written, so the UI can show the quantity
+ * they will leave right away with {@link #getPendingTaps(long)}. They stop being pending on the
+ * main thread, right before the listener is told about the sale, so the UI sees them either
+ * pending or written.
+ */
+public class DecorSaleQueue {
+
+    private static final String LOG_TAG = DecorSaleQueue.class.getSimpleName();
+
+    /**
+     * Time the taps are collected for, before they are written
+     */
+    public static final long DEFAULT_MERGE_WINDOW_MILLIS = 300;
+
+    /**
+     * Receives the outcome of the merged sales, on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after the sale of the given decor is written.
+         *
+         * @param decorId  ID of the sold decor
+         * @param taps     number of taps merged in the sale
+         * @param sold     number of pieces actually sold, less than the taps if there
+         *                 were not enough in stock
+         * @param quantity quantity left after the sale, -1 if there is no such decor
+         */
+        void onSaleWritten(long decorId, int taps, int sold, int quantity);
+    }
+
+    private final Context mContext;
+
+    private final long mMergeWindowMillis;
+
+    private final HandlerThread mThread;
+
+    private final Handler mHandler;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Taps waiting to be written, by decor ID. Guarded by itself, like the counters below.
+     * It's read by every bind of a list item, so the IDs are not boxed.
+     */
+    private final LongSparseArray<Integer> mPendingTaps = new LongSparseArray<>();
+
+    /**
+     * Taps already written, until the main thread hands them over to the listener
+     */
+    private final LongSparseArray<Integer> mWrittenTaps = new LongSparseArray<>();
+
+    private boolean mWriteScheduled;
+
+    private long mMergedTapCount;
+
+    private Listener mListener;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            writePendingSales();
+        }
+    };
+
+    public DecorSaleQueue(Context context) {
+        this(context, DEFAULT_MERGE_WINDOW_MILLIS);
+    }
+
+    public DecorSaleQueue(Context context, long mergeWindowMillis) {
+        mContext = context.getApplicationContext();
+        mMergeWindowMillis = mergeWindowMillis;
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Sets the listener notified about the written sales, or null to remove it.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Queues the sale of one piece of the given decor.
+     */
+    public void sell(long decorId) {
+        synchronized (mPendingTaps) {
+            addTaps(mPendingTaps, decorId, 1);
+            if (!mWriteScheduled) {
+                mWriteScheduled = true;
+                mHandler.postDelayed(mWrite, mMergeWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of taps on the given decor which are not written yet.
+     */
+    public int getPendingTaps(long decorId) {
+        synchronized (mPendingTaps) {
+            return mPendingTaps.get(decorId, 0) + mWrittenTaps.get(decorId, 0);
+        }
+    }
+
+    /**
+     * Adds the given number of taps on the decor to the given taps. Guarded by {@link #mPendingTaps}.
+     */
+    private static void addTaps(LongSparseArray<Integer> taps, long decorId, int count) {
+        int sum = taps.get(decorId, 0) + count;
+        if (sum > 0) {
+            taps.put(decorId, sum);
+        } else {
+            taps.remove(decorId);
+        }
+    }
+
+    /**
+     * Returns the number of taps which were merged into the sale of another tap so far,
+     * i.e. the provider calls saved by the queue.
+     */
+    public long getMergedTapCount() {
+        synchronized (mPendingTaps) {
+            return mMergedTapCount;
+        }
+    }
+
+    /**
+     * Writes the pending sales and stops the background thread. The queue can't be used anymore.
+     */
+    public void quit() {
+        mHandler.removeCallbacks(mWrite);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                writePendingSales();
+                mThread.quit();
+            }
+        });
+    }
+
+    /**
+     * Writes all pending sales, one provider call per decor.
+     */
+    private void writePendingSales() {
+        LongSparseArray<Integer> pendingTaps;
+        synchronized (mPendingTaps) {
+            pendingTaps = mPendingTaps.clone();
+            mWriteScheduled = false;
+        }
+
+        for (int i = 0; i < pendingTaps.size(); i++) {
+            final long decorId = pendingTaps.keyAt(i);
+            final int taps = pendingTaps.valueAt(i);
+
+            // If there are not enough in stock for all taps, sell the pieces that are left
+            int sold = taps;
+            Bundle result = callSell(decorId, sold);
+            if (result != null && !result.getBoolean(DecorEntry.EXTRA_SOLD)
+                    && result.getInt(DecorEntry.EXTRA_QUANTITY) > 0) {
+                sold = result.getInt(DecorEntry.EXTRA_QUANTITY);
+                result = callSell(decorId, sold);
+            }
+            if (result == null || !result.getBoolean(DecorEntry.EXTRA_SOLD)) {
+                sold = 0;
+            }
+            final int quantity = result == null ? -1 : result.getInt(DecorEntry.EXTRA_QUANTITY);
+
+            // Taps made while the sale was written stay pending for the next one
+            synchronized (mPendingTaps) {
+                addTaps(mPendingTaps, decorId, -taps);
+                addTaps(mWrittenTaps, decorId, taps);
+                mMergedTapCount += taps - 1;
+            }
+            Log.d(LOG_TAG, "Merged " + taps + " taps on decor " + decorId + " into one sale of " + sold);
+
+            final int soldPieces = sold;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mPendingTaps) {
+                        addTaps(mWrittenTaps, decorId, -taps);
+                    }
+                    if (mListener != null) {
+                        mListener.onSaleWritten(decorId, taps, soldPieces, quantity);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sells the given amount of the decor through the provider. Returns null if the sale failed.
+     */
+    private Bundle callSell(long decorId, int amount) {
+        Bundle extras = new Bundle();
+        extras.putLong(DecorEntry.EXTRA_DECOR_ID, decorId);
+        extras.putInt(DecorEntry.EXTRA_AMOUNT, amount);
+        try {
+            return mContext.getContentResolver().call(DecorEntry.CONTENT_URI, DecorEntry.METHOD_SELL, null, extras);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Failed to sell decor " + decorId, e);
+            return null;
+        }
+    }
+}
@@ -19,7 +19,10 @@ import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -27,10 +30,10 @@ import android.content.Loader;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
@@ -56,7 +59,9 @@ import android.widget.Toast;
 
 import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Allows user to create a new decor or edit an existing one.
@@ -133,6 +138,27 @@ public class EditorActivity extends AppCompatActivity
      */
     private ImageView mImageView;
 
+    /**
+     * Decodes the decor's image into {@link #mImageView} in the background
+     */
+    private DecorImageLoader mImageLoader;
+
+    /**
+     * Content URI of the image picked from the gallery (null if the image hasn't been changed).
+     * Only this image is saved with the decor, the one shown is subsampled to fit the view.
+     */
+    private Uri mPickedImageUri;
+
+    /**
+     * Single thread saving the decors with a picked image, in the order they were saved
+     */
+    private static final Executor sSaveExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Key of the picked image URI in the saved instance state
+     */
+    private static final String STATE_PICKED_IMAGE_URI = "picked_image_uri";
+
     /**
      * Button to add decor's image
      */
@@ -232,6 +258,15 @@ public class EditorActivity extends AppCompatActivity
         mIncreaseButton = (Button) findViewById(R.id.editor_quantity_button_increase);
         mDecreaseButton = (Button) findViewById(R.id.editor_quantity_button_decrease);
         mOrderButton = (Button) findViewById(R.id.editor_button_order);
+        mImageLoader = new DecorImageLoader(this);
+
+        // Show the image picked before the activity was recreated, instead of the saved one
+        if (savedInstanceState != null) {
+            mPickedImageUri = savedInstanceState.getParcelable(STATE_PICKED_IMAGE_URI);
+            if (mPickedImageUri != null) {
+                showImage(mPickedImageUri, -1, null);
+            }
+        }
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -282,6 +317,37 @@ public class EditorActivity extends AppCompatActivity
 
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_IMAGE_URI, mPickedImageUri);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Don't deliver images decoded for this activity anymore
+        mImageLoader.destroy();
+    }
+
+    /**
+     * Decode the image with the given URI into the ImageView in the background, subsampled
+     * to the size of the view. The view is shown once the image is decoded.
+     *
+     * @param decorId   ID of the decor the image is stored with, for the image cache
+     * @param imageHash hash of the stored image, or null if the image is not stored (yet)
+     */
+    private void showImage(Uri imageUri, long decorId, String imageHash) {
+        mImageLoader.load(imageUri, decorId, DecorImageCache.VARIANT_MASTER, imageHash, mImageView, new DecorImageLoader.Listener() {
+            @Override
+            public void onImageLoaded(ImageView view, Bitmap bitmap) {
+                if (bitmap != null) {
+                    view.setVisibility(View.VISIBLE);
+                }
+            }
+        });
+    }
+
     /**
      * Setup the dropdown spinner that allows the user to select the material of the decor.
      */
@@ -347,7 +413,7 @@ public class EditorActivity extends AppCompatActivity
                 TextUtils.isEmpty(heightString) && mMaterial == DecorEntry.MATERIAL_UNSPECIFIED &&
                 TextUtils.isEmpty(priceString) && TextUtils.isEmpty(quantityString) &&
                 TextUtils.isEmpty(supplierNameString) && TextUtils.isEmpty(supplierEmailString) &&
-                mImageView.getDrawable() == null) {
+                mPickedImageUri == null) {
             // Since no fields were modified, we can return early without creating a new decor.
             // No need to create ContentValues and no need to do any ContentProvider operations.
             return true;
@@ -383,12 +449,6 @@ public class EditorActivity extends AppCompatActivity
             quantity = Integer.parseInt(quantityString);
         }
 
-        // Prepare image to be inserted into database, null value is acceptable.
-        byte[] decorImage = null;
-        if (mImageView.getDrawable() != null) {
-            decorImage = imageViewToByteArray(mImageView);
-        }
-
         // Create a ContentValues object where column names are the keys,
         // and decor attributes from the editor are the values.
         ContentValues values = new ContentValues();
@@ -400,7 +460,18 @@ public class EditorActivity extends AppCompatActivity
         values.put(DecorEntry.COLUMN_DECOR_QUANTITY, quantity);
         values.put(DecorEntry.COLUMN_DECOR_SUPPLIER_NAME, supplierNameString);
         values.put(DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL, supplierEmailString);
-        values.put(DecorEntry.COLUMN_DECOR_IMAGE, decorImage);
+
+        // A picked image is scaled down and encoded in the background, and the decor is saved
+        // once it's ready, so the editor can close right away.
+        if (mPickedImageUri != null) {
+            saveDecorInBackground(getApplicationContext(), mCurrentDecorUri, values, mPickedImageUri);
+            return true;
+        }
+
+        // The image is only written for new decors, without one. Otherwise it's left as it is.
+        if (mCurrentDecorUri == null) {
+            values.putNull(DecorEntry.COLUMN_DECOR_IMAGE);
+        }
 
         // Determine if this is a new or existing decor by checking if mCurrentDecorUri is null or not
         if (mCurrentDecorUri == null) {
@@ -570,7 +641,7 @@ public class EditorActivity extends AppCompatActivity
                 DecorEntry.COLUMN_DECOR_QUANTITY,
                 DecorEntry.COLUMN_DECOR_SUPPLIER_NAME,
                 DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL,
-                DecorEntry.COLUMN_DECOR_IMAGE
+                DecorEntry.COLUMN_DECOR_IMAGE_HASH
         };
 
         // This loader will execute the ContentProvider's query method on a background thread
@@ -603,7 +674,7 @@ public class EditorActivity extends AppCompatActivity
             int quantityColumnIndex = data.getColumnIndex(DecorEntry.COLUMN_DECOR_QUANTITY);
             int supplierNameColumnIndex = data.getColumnIndex(DecorEntry.COLUMN_DECOR_SUPPLIER_NAME);
             int supplierEmailColumnIndex = data.getColumnIndex(DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL);
-            int imageColumnIndex = data.getColumnIndex(DecorEntry.COLUMN_DECOR_IMAGE);
+            int imageHashColumnIndex = data.getColumnIndex(DecorEntry.COLUMN_DECOR_IMAGE_HASH);
 
             // Use that index to extract the String or Int value of the word
             // at the current row the cursor is on.
@@ -616,14 +687,13 @@ public class EditorActivity extends AppCompatActivity
             int currentQuantity = data.getInt(quantityColumnIndex);
             String currentSupplierName = data.getString(supplierNameColumnIndex);
             String currentSupplierEmail = data.getString(supplierEmailColumnIndex);
-            byte[] currentImage = data.getBlob(imageColumnIndex);
-
-            // Show and update decor ImageView if image is available
-            if (currentImage != null) {
-                //Image column has data
-                Bitmap bitmap = BitmapFactory.decodeByteArray(currentImage, 0, currentImage.length);
-                mImageView.setVisibility(View.VISIBLE);
-                mImageView.setImageBitmap(bitmap);
+
+            // Show and update decor ImageView if image is available, unless another one was picked.
+            // The image itself is not in the Cursor, it's streamed from the provider. An image without
+            // a hash is not moved to the image store yet, the view stays hidden if there's none.
+            if (mPickedImageUri == null) {
+                long id = ContentUris.parseId(mCurrentDecorUri);
+                showImage(DecorEntry.buildImageUri(id), id, data.getString(imageHashColumnIndex));
             }
 
             // Update the views on the screen with the values from the database
@@ -672,6 +742,7 @@ public class EditorActivity extends AppCompatActivity
         mQuantityEditText.getText().clear();
         mSupplierNameEditText.getText().clear();
         mSupplierEmailEditText.getText().clear();
+        mImageLoader.cancel(mImageView);
         mImageView.setImageDrawable(null);
         mImageView.setVisibility(View.GONE);
     }
@@ -834,10 +905,8 @@ public class EditorActivity extends AppCompatActivity
             if (resultCode == Activity.RESULT_OK && data != null) {
                 // The user picked an image.
                 // The Intent's data Uri identifies which image was selected.
-                Uri selectedImage = data.getData();
-
-                mImageView.setVisibility(View.VISIBLE);
-                mImageView.setImageURI(selectedImage);
+                mPickedImageUri = data.getData();
+                showImage(mPickedImageUri, -1, null);
 
             } else if (resultCode == Activity.RESULT_CANCELED) {
                 Log.d(LOG_TAG, "Selecting picture cancelled");
@@ -856,16 +925,66 @@ public class EditorActivity extends AppCompatActivity
     }
 
     /**
-     * Helper method to change given image from ImageView to byte array.
+     * Ingest the given image and save the decor with it on the background thread. The outcome
+     * is shown in a toast, as the editor may be gone by then. If the image cannot be read,
+     * the decor is still saved, without it.
      *
-     * @param imageView View that contains desired image
-     * @return byte array conatining information about image
-     */
-    private byte[] imageViewToByteArray(ImageView imageView) {
-        Bitmap bitmap = ((BitmapDrawable) imageView.getDrawable()).getBitmap();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, byteArrayOutputStream);
-        return byteArrayOutputStream.toByteArray();
+     * @param context  application context, which outlives the editor
+     * @param decorUri content URI of the edited decor, or null for a new decor
+     * @param values   values of the decor, without the image
+     * @param imageUri content URI of the picked image
+     */
+    private static void saveDecorInBackground(final Context context, final Uri decorUri,
+                                              final ContentValues values, final Uri imageUri) {
+        sSaveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContentResolver resolver = context.getContentResolver();
+                int messageId;
+                try {
+                    boolean imageSaved = true;
+                    try {
+                        DecorImageIngester.Result image = new DecorImageIngester(context).ingest(imageUri);
+                        values.put(DecorEntry.COLUMN_DECOR_IMAGE, image.getBytes());
+                    } catch (IOException e) {
+                        // The other values are saved anyway: a new decor without an image, an existing
+                        // one keeping its image. The editor is closed already, so they'd be lost.
+                        Log.e(LOG_TAG, "Cannot ingest image " + imageUri, e);
+                        imageSaved = false;
+                        if (decorUri == null) {
+                            values.putNull(DecorEntry.COLUMN_DECOR_IMAGE);
+                        }
+                    }
+                    boolean saved;
+                    if (decorUri == null) {
+                        saved = resolver.insert(DecorEntry.CONTENT_URI, values) != null;
+                    } else {
+                        saved = resolver.update(decorUri, values, null, null) != 0;
+                    }
+                    if (!saved) {
+                        messageId = decorUri == null ?
+                                R.string.editor_insert_decor_failed : R.string.editor_update_decor_failed;
+                    } else if (!imageSaved) {
+                        messageId = R.string.editor_image_read_failed;
+                    } else {
+                        messageId = decorUri == null ?
+                                R.string.editor_insert_decor_successful : R.string.editor_update_decor_successful;
+                    }
+                } catch (RuntimeException e) {
+                    // Nothing is left to catch it on this thread, report the decor as not saved
+                    Log.e(LOG_TAG, "Cannot save decor " + decorUri, e);
+                    messageId = decorUri == null ?
+                            R.string.editor_insert_decor_failed : R.string.editor_update_decor_failed;
+                }
+                final int shownMessageId = messageId;
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, shownMessageId, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
     }
 
     /**
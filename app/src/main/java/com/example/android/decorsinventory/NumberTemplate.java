@@ -0,0 +1,220 @@
+package com.example.android.decorsinventory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * {@link NumberTemplate} formats numbers into a given char buffer without allocating anything,
+ * so list items can be bound without garbage. It supports the templates of the catalog strings:
+ * a text with a single {@code %d} or {@code %.Nf} placeholder, with an optional argument index
+ * ({@code %1$d}) and grouping flag ({@code %,d}). Digits are grouped by three, with the grouping
+ * and decimal separators of the given locale, so the result matches {@link String#format}.
+ * <p>
+ * Prices are formatted without allocating up to 10^15 units of their last fraction digit, and
+ * away from the halfway points between two results. At halfway points {@link String#format} rounds the
+ * shortest decimal representation of the double rather than its exact value, so they're
+ * rounded the same way through a {@link BigDecimal}. Larger and non-finite values are left
+ * to {@link String#format} itself, like all numbers of locales which don't write them with
+ * ASCII digits and minus sign (e.g. Arabic or Persian).
+ */
+public class NumberTemplate {
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    /**
+     * Maximum number of characters of a long, with its sign and grouping separators
+     */
+    private static final int MAX_NUMBER_LENGTH = 1 + 19 + 6;
+
+    /**
+     * Maximum number of integer characters of a double, with its sign and grouping separators
+     */
+    private static final int MAX_DOUBLE_LENGTH = 1 + 309 + 102;
+
+    /**
+     * Maximum number of characters of a localized minus sign, which may come with bidi marks
+     */
+    private static final int MAX_LOCALIZED_SIGN_LENGTH = 3;
+
+    /**
+     * Bound of the scaled prices formatted without {@link String#format}, where a double
+     * still has a fraction to round and the scaled value fits in a long
+     */
+    private static final double MAX_EXACT_SCALED = 1e15;
+
+    /**
+     * Distance from a halfway point, in ulps of the scaled price, within which the multiplication
+     * and the shortest decimal representation may round either way
+     */
+    private static final int HALFWAY_ULPS = 4;
+
+    private final String mTemplate;
+    private final Locale mLocale;
+
+    private final char[] mPrefix;
+    private final char[] mSuffix;
+    private final boolean mGrouping;
+    private final int mFractionDigits;
+    private final char mGroupingSeparator;
+    private final char mDecimalSeparator;
+
+    /**
+     * Whether the locale writes numbers with ASCII digits and minus sign, which are formatted
+     * without {@link String#format}
+     */
+    private final boolean mAsciiNumbers;
+
+    /**
+     * Constructs a new instance of {@link NumberTemplate}.
+     *
+     * @param template text with a single number placeholder, like "Qty: %1$,d"
+     * @param locale   locale of the separators
+     * @throws IllegalArgumentException if the template has no supported placeholder
+     */
+    public NumberTemplate(String template, Locale locale) {
+        int start = template.indexOf('%');
+        if (start == -1) {
+            throw new IllegalArgumentException("No placeholder in template " + template);
+        }
+        int end = start + 1;
+        while (end < template.length() && "0123456789$,.".indexOf(template.charAt(end)) != -1) {
+            end++;
+        }
+        if (end == template.length() || (template.charAt(end) != 'd' && template.charAt(end) != 'f')) {
+            throw new IllegalArgumentException("Unsupported placeholder in template " + template);
+        }
+        String flags = template.substring(start + 1, end);
+        if (flags.indexOf('$') != -1) {
+            flags = flags.substring(flags.indexOf('$') + 1);
+        }
+        mGrouping = flags.indexOf(',') != -1;
+
+        if (template.charAt(end) == 'd') {
+            mFractionDigits = 0;
+        } else if (flags.indexOf('.') == -1) {
+            // Like String.format, floats have 6 fraction digits by default
+            mFractionDigits = 6;
+        } else {
+            mFractionDigits = Integer.parseInt(flags.substring(flags.indexOf('.') + 1));
+        }
+        if (mFractionDigits >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("Too many fraction digits in template " + template);
+        }
+
+        mTemplate = template;
+        mLocale = locale;
+        mPrefix = template.substring(0, start).toCharArray();
+        mSuffix = template.substring(end + 1).toCharArray();
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        mGroupingSeparator = symbols.getGroupingSeparator();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+        mAsciiNumbers = symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-';
+    }
+
+    /**
+     * Returns the size of the buffers which fit any formatted number.
+     */
+    public int getMaxLength() {
+        // Templates with fraction digits format doubles, which may go past a long
+        int numberLength = mFractionDigits > 0 ? MAX_DOUBLE_LENGTH : MAX_NUMBER_LENGTH;
+        if (!mAsciiNumbers) {
+            numberLength += MAX_LOCALIZED_SIGN_LENGTH - 1;
+        }
+        return mPrefix.length + numberLength + 1 + mFractionDigits + mSuffix.length;
+    }
+
+    /**
+     * Formats the given number into the buffer, rounded half up to the fraction digits
+     * of the template.
+     *
+     * @param buffer buffer of at least {@link #getMaxLength()} chars
+     * @return number of chars written
+     */
+    public int format(double value, char[] buffer) {
+        long scale = POWERS_OF_TEN[mFractionDigits];
+        double exact = Math.abs(value) * scale;
+        if (!mAsciiNumbers || !(exact < MAX_EXACT_SCALED)) {
+            // Also NaN and infinities
+            return formatWithFormatter(value, buffer);
+        }
+
+        long scaled;
+        if (Math.abs(exact - Math.floor(exact) - 0.5) <= HALFWAY_ULPS * Math.ulp(exact)) {
+            // Values like 1.005 are stored slightly below the decimal, while 269.59499999999997
+            // is exactly its shortest decimal representation, which String.format rounds
+            scaled = new BigDecimal(Double.toString(Math.abs(value)))
+                    .setScale(mFractionDigits, RoundingMode.HALF_UP)
+                    .unscaledValue()
+                    .longValue();
+        } else {
+            scaled = Math.round(exact);
+        }
+        // Like String.format, keeps the sign of negative values rounded to zero
+        return write(Double.compare(value, 0.0) < 0, scaled / scale, scaled % scale, buffer);
+    }
+
+    /**
+     * Formats the given number into the buffer.
+     *
+     * @param buffer buffer of at least {@link #getMaxLength()} chars
+     * @return number of chars written
+     */
+    public int format(long value, char[] buffer) {
+        if (value == Long.MIN_VALUE) {
+            throw new IllegalArgumentException("Cannot format " + value);
+        }
+        if (!mAsciiNumbers) {
+            return formatWithFormatter(value, buffer);
+        }
+        return write(value < 0, Math.abs(value), 0, buffer);
+    }
+
+    /**
+     * Formats the given number into the buffer with {@link String#format}, which allocates.
+     */
+    private int formatWithFormatter(Object value, char[] buffer) {
+        String formatted = String.format(mLocale, mTemplate, value);
+        formatted.getChars(0, formatted.length(), buffer, 0);
+        return formatted.length();
+    }
+
+    private int write(boolean negative, long integer, long fraction, char[] buffer) {
+        System.arraycopy(mPrefix, 0, buffer, 0, mPrefix.length);
+        int position = mPrefix.length;
+        if (negative) {
+            buffer[position++] = '-';
+        }
+
+        // Write the integer digits from the last one
+        int digits = 1;
+        for (long rest = integer / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = position + digits + (mGrouping ? (digits - 1) / 3 : 0);
+        int index = end;
+        for (int written = 0; written < digits; written++) {
+            if (mGrouping && written > 0 && written % 3 == 0) {
+                buffer[--index] = mGroupingSeparator;
+            }
+            buffer[--index] = (char) ('0' + integer % 10);
+            integer /= 10;
+        }
+        position = end;
+
+        if (mFractionDigits > 0) {
+            buffer[position++] = mDecimalSeparator;
+            for (int i = mFractionDigits - 1; i >= 0; i--) {
+                buffer[position + i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            position += mFractionDigits;
+        }
+
+        System.arraycopy(mSuffix, 0, buffer, position, mSuffix.length);
+        return position + mSuffix.length;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Data migration which may touch every row of a large table, so it runs in the background
+ * after the database is opened instead of blocking the upgrade.
+ * <p>
+ * The rows are processed in chunks ordered by row ID. Every chunk runs in its own transaction
+ * together with saving the ID it stopped at, so the migration resumes where it left off
+ * if the app is killed in the middle.
+ */
+public abstract class DecorBackgroundMigration {
+
+    /**
+     * Value returned by {@link #migrateChunk} when there are no more rows to migrate
+     */
+    public static final long DONE = -1;
+
+    /**
+     * Unique name of the migration, used to keep its progress
+     */
+    private final String mName;
+
+    /**
+     * Maximum number of rows migrated in a single transaction
+     */
+    private final int mChunkSize;
+
+    /**
+     * Constructs a new background migration.
+     *
+     * @param name      unique name of the migration
+     * @param chunkSize maximum number of rows migrated in a single transaction
+     */
+    protected DecorBackgroundMigration(String name, int chunkSize) {
+        mName = name;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the unique name of the migration.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the maximum number of rows migrated in a single transaction.
+     */
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * Migrate the next chunk of at most {@link #getChunkSize()} rows. Called inside a transaction.
+     *
+     * @param db      database to migrate
+     * @param afterId ID of the last migrated row, rows with greater IDs are left to migrate
+     * @return ID of the last row migrated by this chunk, or {@link #DONE} if no rows are left
+     */
+    public abstract long migrateChunk(SQLiteDatabase db, long afterId);
+}
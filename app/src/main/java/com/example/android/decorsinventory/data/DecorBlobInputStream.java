@@ -0,0 +1,114 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the image of a decor still stored as a BLOB in the decors table, which is not moved to
+ * the image store yet. A Cursor can't hold a BLOB larger than its window (about 2 MB), so the
+ * image is read with substr() in chunks of at most {@link DecorEntry#MAX_IMAGE_CHUNK_SIZE} bytes,
+ * and only one chunk is held in memory at once.
+ */
+final class DecorBlobInputStream extends InputStream {
+
+    private static final String IMAGE_SELECTION = " FROM " + DecorEntry.TABLE_NAME + " WHERE " + DecorEntry._ID + "=?";
+
+    private final SQLiteDatabase mDb;
+    private final long mDecorId;
+    private final long mLength;
+
+    private byte[] mChunk = new byte[0];
+    private int mChunkPosition;
+
+    /**
+     * Offset of the first byte after the current chunk
+     */
+    private long mOffset;
+
+    /**
+     * Constructs a stream of the BLOB image of the given decor, of the given length
+     * (see {@link #length(SQLiteDatabase, long)}).
+     */
+    DecorBlobInputStream(SQLiteDatabase db, long decorId, long length) {
+        mDb = db;
+        mDecorId = decorId;
+        mLength = length;
+    }
+
+    /**
+     * Returns the length of the BLOB image of the given decor in bytes, or -1 if the decor
+     * has none. The BLOB itself is not read.
+     */
+    static long length(SQLiteDatabase db, long decorId) {
+        Cursor cursor = db.rawQuery("SELECT length(" + DecorEntry.COLUMN_DECOR_IMAGE + ")" + IMAGE_SELECTION,
+                new String[]{String.valueOf(decorId)});
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads at most length bytes of the BLOB image of the given decor from the given offset.
+     *
+     * @return the bytes read, empty past the end of the image, or null if the decor has no BLOB image
+     */
+    static byte[] readChunk(SQLiteDatabase db, long decorId, long offset, int length) {
+        if (offset < 0 || length <= 0 || length > DecorEntry.MAX_IMAGE_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk of " + length + " bytes at " + offset);
+        }
+        // substr() counts bytes of a BLOB, from 1
+        Cursor cursor = db.rawQuery("SELECT substr(" + DecorEntry.COLUMN_DECOR_IMAGE + ", ?, ?)" + IMAGE_SELECTION,
+                new String[]{String.valueOf(offset + 1), String.valueOf(length), String.valueOf(decorId)});
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return null;
+            }
+            return cursor.getBlob(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] buffer = new byte[1];
+        return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        if (mChunkPosition == mChunk.length) {
+            if (mOffset >= mLength) {
+                return -1;
+            }
+            byte[] chunk = readChunk(mDb, mDecorId, mOffset,
+                    (int) Math.min(DecorEntry.MAX_IMAGE_CHUNK_SIZE, mLength - mOffset));
+            if (chunk == null || chunk.length == 0) {
+                throw new IOException("Image of decor " + mDecorId + " changed while reading it");
+            }
+            mChunk = chunk;
+            mChunkPosition = 0;
+            mOffset += chunk.length;
+        }
+
+        int length = Math.min(count, mChunk.length - mChunkPosition);
+        System.arraycopy(mChunk, mChunkPosition, buffer, offset, length);
+        mChunkPosition += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return mChunk.length - mChunkPosition;
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.android.decorsinventory.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -36,6 +38,49 @@ public final class DecorContract {
      */
     public static final String PATH_DECORS = "decors";
 
+    /**
+     * Path appended to the content URI of a single decor to access its image.
+     * For instance, content://com.example.android.decorsinventory/decors/3/image
+     */
+    public static final String PATH_IMAGE = "image";
+
+    /**
+     * Possible path (appended to base content URI) for reading thumbnails of decor images.
+     * For instance, content://com.example.android.decorsinventory/thumbnails/{image hash}/96
+     */
+    public static final String PATH_THUMBNAILS = "thumbnails";
+
+    /**
+     * Path appended to the decors content URI to search decors by text.
+     * For instance, content://com.example.android.decorsinventory/decors/search?q=glass%20vase
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Possible path (appended to base content URI) of the change notifications of single decors.
+     * For instance, content://com.example.android.decorsinventory/changes/3/update
+     * is notified when the decor with ID 3 is updated. Nothing can be queried at these URIs.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to the decors content URI to export all decors as a file.
+     * For instance, content://com.example.android.decorsinventory/decors/export?format=csv
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Possible path (appended to base content URI) for reading the inventory aggregates.
+     * For instance, content://com.example.android.decorsinventory/aggregates/total
+     */
+    public static final String PATH_AGGREGATES = "aggregates";
+
+    /**
+     * Possible path (appended to base content URI) for listing the decors which are low on stock.
+     * For instance, content://com.example.android.decorsinventory/low_stock?supplier=Acme
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
     /**
      * Inner class that defines constant values for the decors database table.
      * Each entry in the table represents a single decor.
@@ -47,6 +92,21 @@ public final class DecorContract {
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_DECORS);
 
+        /**
+         * The URI under which the changes of single decors are notified. Observers of
+         * {@link #CONTENT_URI} are only notified when decors are added or removed, or when
+         * the changed decors are not known; observers of this URI (with descendants) are
+         * notified of every change, with a URI built by {@link #buildChangeUri(long, String)}.
+         */
+        public static final Uri CHANGES_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * Kinds of change of a single decor, the last segment of its change URI
+         */
+        public static final String CHANGE_INSERT = "insert";
+        public static final String CHANGE_UPDATE = "update";
+        public static final String CHANGE_DELETE = "delete";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of decors.
          */
@@ -59,6 +119,146 @@ public final class DecorContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DECORS;
 
+        /**
+         * Query parameter of the search URI holding the text to search for. Every word
+         * of the text must match the beginning of a word in the decor's name, description
+         * or supplier's name.
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter limiting the number of returned decors. Without a sort order,
+         * the decors of {@link #CONTENT_URI} are returned in {@link #PAGE_SORT_ORDER}, so the
+         * first page lines up with the pages following it.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameters of a page of decors, holding the name and the ID of the last decor
+         * of the previous page. The page starts right after that decor in {@link #PAGE_SORT_ORDER}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Order of decors in pages: by name, then by ID for decors with the same name.
+         * It's backed by an index, so a page costs the same no matter how far it is.
+         */
+        public static final String PAGE_SORT_ORDER = DecorEntry.COLUMN_DECOR_NAME + ", " + DecorEntry._ID;
+
+        /**
+         * Provider method which sells a decor: it decreases the quantity of the decor by
+         * {@link #EXTRA_AMOUNT} (1 by default) in one atomic step, only if there are enough in stock.
+         * Call it with {@link android.content.ContentResolver#call} and the
+         * {@link #EXTRA_DECOR_ID} of the decor in the extras.
+         * <p>
+         * The result holds {@link #EXTRA_SOLD} and the {@link #EXTRA_QUANTITY} left after the sale,
+         * which is -1 if there is no such decor.
+         */
+        public static final String METHOD_SELL = "sell";
+
+        public static final String EXTRA_DECOR_ID = "decor_id";
+        public static final String EXTRA_AMOUNT = "amount";
+        public static final String EXTRA_SOLD = "sold";
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /**
+         * Provider method which returns the statistics of the in-memory cache of single decors:
+         * {@link #EXTRA_HIT_COUNT}, {@link #EXTRA_MISS_COUNT}, {@link #EXTRA_EVICTION_COUNT}
+         * and the approximate heap size of the cached decors, {@link #EXTRA_SIZE_BYTES}
+         * out of {@link #EXTRA_MAX_SIZE_BYTES}.
+         */
+        public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+
+        public static final String EXTRA_HIT_COUNT = "hit_count";
+        public static final String EXTRA_MISS_COUNT = "miss_count";
+        public static final String EXTRA_EVICTION_COUNT = "eviction_count";
+        public static final String EXTRA_SIZE_BYTES = "size_bytes";
+        public static final String EXTRA_MAX_SIZE_BYTES = "max_size_bytes";
+
+        /**
+         * Provider method which returns the metrics of the provider calls since the process
+         * started. The result holds the {@link #EXTRA_LATENCY_BUCKETS_MICROS} and a bundle per
+         * operation and target, keyed like "query:decor_id", "update:decors" or "call:sell".
+         * Each of them holds the {@link #EXTRA_CALL_COUNT}, {@link #EXTRA_ERROR_COUNT},
+         * {@link #EXTRA_ROW_COUNT}, {@link #EXTRA_BYTE_COUNT}, {@link #EXTRA_TOTAL_LATENCY_MICROS},
+         * {@link #EXTRA_MAX_LATENCY_MICROS} and the {@link #EXTRA_LATENCY_HISTOGRAM}.
+         * The same metrics are printed by {@code adb shell dumpsys activity provider DecorProvider}.
+         */
+        public static final String METHOD_METRICS = "metrics";
+
+        /**
+         * Upper bounds of the latency histogram buckets, the last bucket has no bound
+         */
+        public static final String EXTRA_LATENCY_BUCKETS_MICROS = "latency_buckets_micros";
+        public static final String EXTRA_CALL_COUNT = "call_count";
+        public static final String EXTRA_ERROR_COUNT = "error_count";
+        public static final String EXTRA_ROW_COUNT = "row_count";
+        public static final String EXTRA_BYTE_COUNT = "byte_count";
+        public static final String EXTRA_TOTAL_LATENCY_MICROS = "total_latency_micros";
+        public static final String EXTRA_MAX_LATENCY_MICROS = "max_latency_micros";
+        public static final String EXTRA_LATENCY_HISTOGRAM = "latency_histogram";
+
+        /**
+         * Provider method which sets the duration above which queries are logged with their
+         * SQL, arguments and query plan, given in {@link #EXTRA_THRESHOLD_MILLIS}. The most recent
+         * slow queries are printed by {@code adb shell dumpsys activity provider DecorProvider}.
+         */
+        public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+        public static final String EXTRA_THRESHOLD_MILLIS = "threshold_millis";
+
+        /**
+         * Provider method which reads a chunk of the image of the decor with the given
+         * {@link #EXTRA_DECOR_ID}: at most {@link #EXTRA_LENGTH} bytes (up to
+         * {@link #MAX_IMAGE_CHUNK_SIZE}, which is also the default) from {@link #EXTRA_OFFSET}.
+         * <p>
+         * The result holds the {@link #EXTRA_CHUNK}, which is empty past the end of the image,
+         * the {@link #EXTRA_TOTAL_LENGTH} of the image, which is -1 if the decor has no image, and
+         * its {@link #EXTRA_IMAGE_HASH}, which changes whenever the image changes. Chunks stay far
+         * below the limits of a CursorWindow and of a binder transaction, no matter how large the
+         * image is.
+         */
+        public static final String METHOD_READ_IMAGE_CHUNK = "read_image_chunk";
+
+        public static final String EXTRA_OFFSET = "offset";
+        public static final String EXTRA_LENGTH = "length";
+        public static final String EXTRA_CHUNK = "chunk";
+        public static final String EXTRA_TOTAL_LENGTH = "total_length";
+        public static final String EXTRA_IMAGE_HASH = "image_hash";
+
+        /**
+         * Largest chunk of an image returned by {@link #METHOD_READ_IMAGE_CHUNK}, in bytes
+         */
+        public static final int MAX_IMAGE_CHUNK_SIZE = 256 * 1024;
+
+        /**
+         * The MIME type of the image of a single decor. Images are stored in whatever format
+         * they were encoded with.
+         */
+        public static final String CONTENT_IMAGE_TYPE = "image/*";
+
+        /**
+         * The MIME type of a thumbnail of a decor image.
+         */
+        public static final String CONTENT_THUMBNAIL_TYPE = "image/jpeg";
+
+        /**
+         * The MIME types of the exports of decors, see {@link #buildExportUri(String, boolean)}.
+         */
+        public static final String CONTENT_CSV_TYPE = "text/csv";
+        public static final String CONTENT_JSON_TYPE = "application/json";
+
+        /**
+         * Query parameters of the export URI: the {@link #EXPORT_FORMAT_CSV} or
+         * {@link #EXPORT_FORMAT_JSON} format, and whether the images are included.
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        public static final String QUERY_PARAMETER_IMAGES = "images";
+
+        public static final String EXPORT_FORMAT_CSV = "csv";
+        public static final String EXPORT_FORMAT_JSON = "json";
+
         /**
          * Name of database table for decors
          */
@@ -116,6 +316,23 @@ public final class DecorContract {
          */
         public static final String COLUMN_DECOR_QUANTITY = "quantity";
 
+        /**
+         * Quantity at or below which the decor should be reordered. Decors without a threshold
+         * are only reordered when they're out of stock.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DECOR_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Quantity left above the reorder threshold, {@link #COLUMN_DECOR_QUANTITY} minus
+         * {@link #COLUMN_DECOR_REORDER_THRESHOLD}. The decor is low on stock when it's 0 or less.
+         * It's kept up to date by the database and indexed, so it can only be read.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DECOR_STOCK_MARGIN = "stock_margin";
+
         /**
          * Name of the supplier of the decor.
          * <p>
@@ -131,12 +348,42 @@ public final class DecorContract {
         public static final String COLUMN_DECOR_SUPPLIER_EMAIL = "supplier_email";
 
         /**
-         * Image of the decor stored as a BLOB type.
+         * Image of the decor as encoded bytes.
+         * <p>
+         * The image is only accepted when inserting or updating a decor. The provider moves it
+         * to the image store and keeps its {@link #COLUMN_DECOR_IMAGE_HASH} in the row instead,
+         * so this column always reads as null. Use {@link #buildImageUri(long)} to read the image.
          * <p>
          * Type: BLOB
          */
         public static final String COLUMN_DECOR_IMAGE = "image";
 
+        /**
+         * Hash of the decor's image in the image store, or null if the decor has no image.
+         * It changes whenever the image changes.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_DECOR_IMAGE_HASH = "image_hash";
+
+        /**
+         * Hash of the image whose thumbnails are ready, or null while they're being generated
+         * (or if the decor has no image). Thumbnails are generated in the background after
+         * the image is saved. Once this equals {@link #COLUMN_DECOR_IMAGE_HASH}, use
+         * {@link #buildThumbnailUri(String, int)} to read them.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_DECOR_THUMBNAIL_HASH = "thumbnail_hash";
+
+        /**
+         * Sizes (in pixels, of the longer side) of the thumbnails generated for every image,
+         * in ascending order.
+         */
+        public static final int THUMBNAIL_SIZE_SMALL = 96;
+        public static final int THUMBNAIL_SIZE_LARGE = 256;
+        public static final int[] THUMBNAIL_SIZES = {THUMBNAIL_SIZE_SMALL, THUMBNAIL_SIZE_LARGE};
+
         /**
          * Possible values for the material of the decor.
          */
@@ -146,6 +393,105 @@ public final class DecorContract {
         public static final int MATERIAL_METAL = 3;
         public static final int MATERIAL_FABRIC = 4;
 
+        /**
+         * Returns the content URI of the image of the decor with the given ID.
+         * The image can be read with {@link ContentResolver#openInputStream(Uri)}.
+         */
+        public static Uri buildImageUri(long decorId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(decorId))
+                    .appendPath(PATH_IMAGE)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI which searches decors for the given text. Decors whose name
+         * matches come first, then the ones matching only by description or supplier's name.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, text)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of an export of all decors, which can be read with
+         * {@link ContentResolver#openInputStream(Uri)}. The file is written while it's read,
+         * so it's never held in memory. It has the columns the import reads: a CSV file with a
+         * header, or a JSON array of objects. Images are included as Base64 in the "image" column,
+         * and left empty if their file is missing. An export which fails midway makes the read
+         * throw an IOException, rather than end like a complete file (from KitKat on).
+         *
+         * @param format {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_JSON}
+         * @param images whether the images are included
+         */
+        public static Uri buildExportUri(String format, boolean images) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .appendQueryParameter(QUERY_PARAMETER_IMAGES, String.valueOf(images))
+                    .build();
+        }
+
+        /**
+         * Returns the URI notified about every change of the decor with the given ID.
+         * Cursors of single decors are registered on it.
+         */
+        public static Uri buildChangeUri(long id) {
+            return ContentUris.withAppendedId(CHANGES_URI, id);
+        }
+
+        /**
+         * Returns the URI notified about the given kind of change of the decor with the given ID.
+         *
+         * @param kind {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}
+         */
+        public static Uri buildChangeUri(long id, String kind) {
+            return buildChangeUri(id).buildUpon().appendPath(kind).build();
+        }
+
+        /**
+         * Returns the content URI of the first page of decors, in {@link #PAGE_SORT_ORDER}.
+         *
+         * @param pageSize maximum number of decors in the page
+         */
+        public static Uri buildPageUri(int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of the page of decors which follows the given decor,
+         * in {@link #PAGE_SORT_ORDER}.
+         *
+         * @param afterName name of the last decor of the previous page
+         * @param afterId   ID of the last decor of the previous page
+         * @param pageSize  maximum number of decors in the page
+         */
+        public static Uri buildPageUri(String afterName, long afterId, int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of the thumbnail of the given size for the image with the
+         * given hash (read from {@link #COLUMN_DECOR_THUMBNAIL_HASH}).
+         *
+         * @param size one of {@link #THUMBNAIL_SIZES}
+         */
+        public static Uri buildThumbnailUri(String imageHash, int size) {
+            return BASE_CONTENT_URI.buildUpon()
+                    .appendPath(PATH_THUMBNAILS)
+                    .appendPath(imageHash)
+                    .appendPath(String.valueOf(size))
+                    .build();
+        }
+
         /**
          * Returns whether or not the given material is {@link #MATERIAL_UNSPECIFIED}, {@link #MATERIAL_GLASS},
          * {@link #MATERIAL_WOOD}, {@link #MATERIAL_METAL} or {@link #MATERIAL_FABRIC}.
@@ -154,5 +500,216 @@ public final class DecorContract {
             return (material == MATERIAL_UNSPECIFIED || material == MATERIAL_GLASS ||
                     material == MATERIAL_WOOD || material == MATERIAL_METAL || material == MATERIAL_FABRIC);
         }
+
+        /**
+         * Check that the given values describe a valid new decor.
+         * Throws {@link IllegalArgumentException} if any of the required attributes is missing
+         * or has an invalid value.
+         */
+        public static void validateNewDecor(ContentValues values) {
+            // Check that the name is not null
+            String name = values.getAsString(COLUMN_DECOR_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Decor requires a name");
+            }
+
+            // No need to check the description, any value is valid (including null).
+
+            // Check that the material is not null
+            Integer material = values.getAsInteger(COLUMN_DECOR_MATERIAL);
+            if (material == null || !isValidMaterial(material)) {
+                throw new IllegalArgumentException("Decor requires valid material");
+            }
+
+            // If the height is provided, check that it's greater than or equal to 0 cm
+            Integer height = values.getAsInteger(COLUMN_DECOR_HEIGHT);
+            if (height != null && height < 0) {
+                throw new IllegalArgumentException("Height cannot be negative number");
+            }
+
+            // Check that the price is not null, finite and not negative
+            Double price = values.getAsDouble(COLUMN_DECOR_PRICE);
+            if (!isValidPrice(price)) {
+                throw new IllegalArgumentException("Price must be positive value or 0");
+            }
+
+            // Check that the quantity is not null and not negative
+            Integer quantity = values.getAsInteger(COLUMN_DECOR_QUANTITY);
+            if (quantity == null || quantity < 0) {
+                throw new IllegalArgumentException("Quantity must be positive number or 0");
+            }
+
+            validateStockValues(values);
+
+            // No need to check the supplier's name, email address or decor's image,
+            // any value is valid (including null).
+        }
+
+        /**
+         * Returns whether the given price is set, finite and not negative. NaN and infinities,
+         * which an import may parse from text, would break the sums of the inventory.
+         */
+        public static boolean isValidPrice(Double price) {
+            return price != null && !price.isNaN() && !price.isInfinite() && price >= 0;
+        }
+
+        /**
+         * Check that the given values of a new or updated decor have a valid reorder threshold,
+         * if any, and don't set the stock margin.
+         * Throws {@link IllegalArgumentException} otherwise.
+         */
+        public static void validateStockValues(ContentValues values) {
+            if (values.containsKey(COLUMN_DECOR_REORDER_THRESHOLD)) {
+                Integer threshold = values.getAsInteger(COLUMN_DECOR_REORDER_THRESHOLD);
+                if (threshold == null || threshold < 0) {
+                    throw new IllegalArgumentException("Reorder threshold must be positive number or 0");
+                }
+            }
+
+            if (values.containsKey(COLUMN_DECOR_STOCK_MARGIN)) {
+                throw new IllegalArgumentException("Stock margin cannot be written");
+            }
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory aggregates table.
+     * Each entry in the table sums up the decors of a single material. The table is kept up
+     * to date by triggers on the decors table, so reading it never goes through the decors.
+     * It can only be queried.
+     */
+    public static final class DecorAggregateEntry {
+
+        /**
+         * The content URI of the aggregates per material, one row for every material
+         * that ever had a decor.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_AGGREGATES);
+
+        /**
+         * The content URI of the aggregates of the whole inventory, a single row with
+         * the same columns, except the material.
+         */
+        public static final Uri TOTAL_URI = Uri.withAppendedPath(CONTENT_URI, "total");
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the aggregates per material.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATES;
+
+        /**
+         * The MIME type of the {@link #TOTAL_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATES;
+
+        /**
+         * Name of database table for aggregates
+         */
+        public static final String TABLE_NAME = "decor_aggregates";
+
+        /**
+         * Material of the summed up decors, one of the materials of {@link DecorEntry}.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_MATERIAL = DecorEntry.COLUMN_DECOR_MATERIAL;
+
+        /**
+         * Number of decors.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DECOR_COUNT = "decor_count";
+
+        /**
+         * Sum of the quantities of the decors.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /**
+         * Value of the inventory, the sum of price times quantity of the decors.
+         * <p>
+         * Type: REAL
+         */
+        public static final String COLUMN_INVENTORY_VALUE = "inventory_value";
+
+        /**
+         * Number of decors which are out of stock.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the low stock table.
+     * Each entry in the table is a decor which is at or below its reorder threshold.
+     * <p>
+     * The table is updated by a scan which runs in the background after every write, and
+     * before a query if decors changed since. It only looks at the decors changed since the last
+     * scan, so reading the table is as fast as the list is short. The rows of {@link #CONTENT_URI} join
+     * the columns of this table with the columns of {@link DecorEntry}, grouped by supplier.
+     */
+    public static final class DecorLowStockEntry {
+
+        /**
+         * The content URI of the decors which are low on stock, ordered by supplier's name
+         * and decor's name
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOW_STOCK);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of decors low on stock.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOW_STOCK;
+
+        /**
+         * Query parameter of the {@link #CONTENT_URI} limiting the decors to a single supplier.
+         */
+        public static final String QUERY_PARAMETER_SUPPLIER = "supplier";
+
+        /**
+         * Provider method which scans the decors changed since the last scan right away,
+         * instead of waiting for the background one. With {@link #EXTRA_FULL} set, all decors
+         * are scanned again. The result holds the {@link #EXTRA_SCANNED_COUNT}: the number of changed
+         * decors scanned, or the number of decors low on stock after a full scan.
+         */
+        public static final String METHOD_SCAN_LOW_STOCK = "scan_low_stock";
+
+        public static final String EXTRA_FULL = "full";
+        public static final String EXTRA_SCANNED_COUNT = "scanned_count";
+
+        /**
+         * Name of database table for decors low on stock
+         */
+        public static final String TABLE_NAME = "low_stock";
+
+        /**
+         * ID of the decor which is low on stock.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DECOR_ID = "decor_id";
+
+        /**
+         * Time the scan found the decor low on stock, in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DETECTED_AT = "detected_at";
+
+        /**
+         * Returns the content URI of the decors of the given supplier which are low on stock.
+         */
+        public static Uri buildSupplierUri(String supplierName) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SUPPLIER, supplierName)
+                    .build();
+        }
     }
 }
@@ -1,11 +1,14 @@
 package com.example.android.decorsinventory.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import com.example.android.decorsinventory.data.DecorContract.DecorAggregateEntry;
 import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+import com.example.android.decorsinventory.data.DecorContract.DecorLowStockEntry;
 
 /**
  * Database helper for Decors Inventory app. Manages database creation and version management.
@@ -18,9 +21,25 @@ public class DecorDbHelper extends SQLiteOpenHelper {
      */
     public static final String DATABASE_NAME = "Decors.db";
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, you must increment the database version
+     * and add the upgrade step to {@link DecorMigrations}.
      */
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 8;
+
+    /**
+     * Possible values of the synchronous level of the database (PRAGMA synchronous).
+     * With write-ahead logging {@link #SYNCHRONOUS_NORMAL} is durable enough for the app,
+     * {@link #SYNCHRONOUS_FULL} additionally syncs the log on every commit.
+     */
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    /**
+     * Default number of pages the write-ahead log may grow to before SQLite checkpoints it
+     * back into the database file on commit (PRAGMA wal_autocheckpoint).
+     */
+    public static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
 
     private static final String TEXT_TYPE = " TEXT";
     private static final String INTEGER_TYPE = " INTEGER";
@@ -36,22 +55,286 @@ public class DecorDbHelper extends SQLiteOpenHelper {
                     DecorEntry.COLUMN_DECOR_HEIGHT + INTEGER_TYPE + COMMA_SEP +
                     DecorEntry.COLUMN_DECOR_PRICE + REAL_TYPE + " NOT NULL DEFAULT 0" + COMMA_SEP +
                     DecorEntry.COLUMN_DECOR_QUANTITY + INTEGER_TYPE + " NOT NULL DEFAULT 0" + COMMA_SEP +
+                    DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD + INTEGER_TYPE + " NOT NULL DEFAULT 0" + COMMA_SEP +
+                    DecorEntry.COLUMN_DECOR_STOCK_MARGIN + INTEGER_TYPE + " NOT NULL DEFAULT 0" + COMMA_SEP +
                     DecorEntry.COLUMN_DECOR_SUPPLIER_NAME + TEXT_TYPE + COMMA_SEP +
                     DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL + TEXT_TYPE + COMMA_SEP +
-                    DecorEntry.COLUMN_DECOR_IMAGE + BLOB_TYPE +
+                    DecorEntry.COLUMN_DECOR_IMAGE + BLOB_TYPE + COMMA_SEP +
+                    DecorEntry.COLUMN_DECOR_IMAGE_HASH + TEXT_TYPE + COMMA_SEP +
+                    DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH + TEXT_TYPE +
                     ");";
 
+    /**
+     * Index backing the pages of decors, ordered by {@link DecorEntry#PAGE_SORT_ORDER}
+     */
+    static final String SQL_CREATE_PAGE_INDEX =
+            "CREATE INDEX " + DecorEntry.TABLE_NAME + "_page ON " + DecorEntry.TABLE_NAME +
+                    " (" + DecorEntry.PAGE_SORT_ORDER + ");";
 
-    private static final String SQL_DELETE_ENTRIES =
-            "DROP TABLE IF EXIST " + DecorEntry.TABLE_NAME;
+    /**
+     * Name of the full-text search table indexing the decors. Its docid is the decor's _id.
+     * It's an external content table: it keeps only the index, the indexed texts are read
+     * from the decors table, so they're not stored twice.
+     */
+    static final String SEARCH_TABLE_NAME = "decors_fts";
 
     /**
-     * Constructs a new instance of {@link DecorDbHelper}.
+     * Shadow table SQLite keeps for the search table, with a row for every indexed decor
+     */
+    static final String SEARCH_DOCSIZE_TABLE_NAME = SEARCH_TABLE_NAME + "_docsize";
+
+    /**
+     * Columns of the decors table indexed for full-text search
+     */
+    static final String SEARCH_COLUMNS = DecorEntry.COLUMN_DECOR_NAME + COMMA_SEP +
+            DecorEntry.COLUMN_DECOR_DESCRIPTION + COMMA_SEP +
+            DecorEntry.COLUMN_DECOR_SUPPLIER_NAME;
+
+    static final String SQL_CREATE_SEARCH_INDEX =
+            "CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4(content=\"" + DecorEntry.TABLE_NAME +
+                    "\", " + SEARCH_COLUMNS + ");";
+
+    /**
+     * Triggers keeping the search index in sync with the decors table. Updates which don't touch
+     * the indexed columns (like selling a decor) leave the index alone.
+     * <p>
+     * The index removes a decor by tokenizing its texts read from the decors table, so decors
+     * are removed before they change and added after. Decors the background indexing didn't
+     * reach yet are not in the index, so they're not removed.
+     */
+    static final String[] SQL_CREATE_SEARCH_TRIGGERS = {
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_insert AFTER INSERT ON " + DecorEntry.TABLE_NAME +
+                    " BEGIN" + indexDecor() + " END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_before_update BEFORE UPDATE OF " + SEARCH_COLUMNS +
+                    " ON " + DecorEntry.TABLE_NAME + whenIndexed() + " BEGIN" + unindexDecor() + " END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_update AFTER UPDATE OF " + SEARCH_COLUMNS +
+                    " ON " + DecorEntry.TABLE_NAME + " BEGIN" + indexDecor() + " END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_delete BEFORE DELETE ON " + DecorEntry.TABLE_NAME +
+                    whenIndexed() + " BEGIN" + unindexDecor() + " END;"
+    };
+
+    static final String SQL_CREATE_AGGREGATES =
+            "CREATE TABLE " + DecorAggregateEntry.TABLE_NAME + " (" +
+                    DecorAggregateEntry.COLUMN_MATERIAL + INTEGER_TYPE + " PRIMARY KEY" + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_DECOR_COUNT + INTEGER_TYPE + " NOT NULL DEFAULT 0" + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_TOTAL_QUANTITY + INTEGER_TYPE + " NOT NULL DEFAULT 0" + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_INVENTORY_VALUE + REAL_TYPE + " NOT NULL DEFAULT 0" + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT + INTEGER_TYPE + " NOT NULL DEFAULT 0" +
+                    ");";
+
+    /**
+     * Fills the aggregates table from the existing decors, in a single pass
+     */
+    static final String SQL_POPULATE_AGGREGATES =
+            "INSERT INTO " + DecorAggregateEntry.TABLE_NAME + " (" +
+                    DecorAggregateEntry.COLUMN_MATERIAL + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_DECOR_COUNT + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_TOTAL_QUANTITY + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_INVENTORY_VALUE + COMMA_SEP +
+                    DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT + ")" +
+                    " SELECT " + DecorEntry.COLUMN_DECOR_MATERIAL + ", COUNT(*)" +
+                    ", SUM(" + DecorEntry.COLUMN_DECOR_QUANTITY + ")" +
+                    ", SUM(" + DecorEntry.COLUMN_DECOR_PRICE + " * " + DecorEntry.COLUMN_DECOR_QUANTITY + ")" +
+                    ", SUM(" + DecorEntry.COLUMN_DECOR_QUANTITY + " <= 0)" +
+                    " FROM " + DecorEntry.TABLE_NAME + " GROUP BY " + DecorEntry.COLUMN_DECOR_MATERIAL + ";";
+
+    /**
+     * Triggers keeping the aggregates in sync with the decors table: the old decor is taken
+     * out of the aggregates of its material and the new one is added, so every change costs
+     * the same no matter how many decors there are. Updates which don't touch the summed up
+     * columns leave the aggregates alone.
+     */
+    static final String[] SQL_CREATE_AGGREGATES_TRIGGERS = {
+            "CREATE TRIGGER " + DecorAggregateEntry.TABLE_NAME + "_insert AFTER INSERT ON " +
+                    DecorEntry.TABLE_NAME + " BEGIN" + aggregateDecor("new", "+") + " END;",
+            "CREATE TRIGGER " + DecorAggregateEntry.TABLE_NAME + "_update AFTER UPDATE OF " +
+                    DecorEntry.COLUMN_DECOR_MATERIAL + COMMA_SEP + DecorEntry.COLUMN_DECOR_PRICE + COMMA_SEP +
+                    DecorEntry.COLUMN_DECOR_QUANTITY + " ON " + DecorEntry.TABLE_NAME +
+                    " BEGIN" + aggregateDecor("old", "-") + aggregateDecor("new", "+") + " END;",
+            "CREATE TRIGGER " + DecorAggregateEntry.TABLE_NAME + "_delete AFTER DELETE ON " +
+                    DecorEntry.TABLE_NAME + " BEGIN" + aggregateDecor("old", "-") + " END;"
+    };
+
+    /**
+     * Index on the stock margin, so the decors low on stock are found without reading the others
+     */
+    static final String SQL_CREATE_STOCK_MARGIN_INDEX =
+            "CREATE INDEX " + DecorEntry.TABLE_NAME + "_stock_margin ON " + DecorEntry.TABLE_NAME +
+                    " (" + DecorEntry.COLUMN_DECOR_STOCK_MARGIN + ");";
+
+    /**
+     * Name of the table holding the IDs of the decors changed since the last low stock scan
+     */
+    static final String LOW_STOCK_DIRTY_TABLE_NAME = "low_stock_dirty";
+
+    static final String SQL_CREATE_LOW_STOCK_DIRTY =
+            "CREATE TABLE " + LOW_STOCK_DIRTY_TABLE_NAME + " (" +
+                    DecorLowStockEntry.COLUMN_DECOR_ID + INTEGER_TYPE + " PRIMARY KEY);";
+
+    static final String SQL_CREATE_LOW_STOCK =
+            "CREATE TABLE " + DecorLowStockEntry.TABLE_NAME + " (" +
+                    DecorLowStockEntry.COLUMN_DECOR_ID + INTEGER_TYPE + " PRIMARY KEY" + COMMA_SEP +
+                    DecorLowStockEntry.COLUMN_DETECTED_AT + INTEGER_TYPE + " NOT NULL);";
+
+    /**
+     * Triggers keeping the stock margin of the decors up to date and marking the decors whose
+     * stock changed for the next low stock scan. SQLite older than 3.9 (before Android 7.0)
+     * cannot index expressions, so the margin is a column written by the triggers; the inner
+     * update doesn't fire any other trigger.
+     */
+    static final String[] SQL_CREATE_STOCK_TRIGGERS = {
+            "CREATE TRIGGER " + DecorEntry.TABLE_NAME + "_stock_insert AFTER INSERT ON " +
+                    DecorEntry.TABLE_NAME + " BEGIN" + updateStockMargin() + markLowStockDirty("new") + " END;",
+            "CREATE TRIGGER " + DecorEntry.TABLE_NAME + "_stock_update AFTER UPDATE OF " +
+                    DecorEntry.COLUMN_DECOR_QUANTITY + COMMA_SEP + DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD +
+                    " ON " + DecorEntry.TABLE_NAME +
+                    " BEGIN" + updateStockMargin() + markLowStockDirty("new") + " END;",
+            "CREATE TRIGGER " + DecorEntry.TABLE_NAME + "_stock_delete AFTER DELETE ON " +
+                    DecorEntry.TABLE_NAME + " BEGIN" + markLowStockDirty("old") + " END;"
+    };
+
+    /**
+     * Migrations which the upgrade steps may leave to run in the background.
+     */
+    private final DecorBackgroundMigration[] mBackgroundMigrations;
+
+    /**
+     * Synchronous level applied to the database connection.
+     */
+    private final int mSynchronous;
+
+    /**
+     * Size of the write-ahead log (in pages) that triggers an automatic checkpoint.
+     */
+    private final int mWalAutoCheckpointPages;
+
+    /**
+     * Constructs a new instance of {@link DecorDbHelper} with write-ahead logging enabled,
+     * so readers don't have to wait for writers.
      *
      * @param context of the app
      */
     public DecorDbHelper(Context context) {
+        this(context, true, SYNCHRONOUS_NORMAL, DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Constructs a new instance of {@link DecorDbHelper}.
+     * <p>
+     * With write-ahead logging enabled, the framework keeps a pool of read-only connections
+     * next to the primary (writing) connection, so queries run concurrently with a writer.
+     * Without it, the database uses the rollback journal and a single connection.
+     *
+     * @param context                of the app
+     * @param writeAheadLogging      whether the database should use write-ahead logging
+     * @param synchronous            one of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL}
+     *                               or {@link #SYNCHRONOUS_FULL}
+     * @param walAutoCheckpointPages size of the log (in pages) that triggers a checkpoint
+     */
+    public DecorDbHelper(Context context, boolean writeAheadLogging, int synchronous,
+                         int walAutoCheckpointPages) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (synchronous < SYNCHRONOUS_OFF || synchronous > SYNCHRONOUS_FULL) {
+            throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+        }
+        if (walAutoCheckpointPages <= 0) {
+            throw new IllegalArgumentException("Checkpoint size must be positive number");
+        }
+        mBackgroundMigrations = DecorMigrations.getBackgroundMigrations(new DecorImageStore(context));
+        mSynchronous = synchronous;
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+        setWriteAheadLoggingEnabled(writeAheadLogging);
+    }
+
+    /**
+     * Returns the trigger statement adding the new row to the search index.
+     */
+    private static String indexDecor() {
+        return " INSERT INTO " + SEARCH_TABLE_NAME + "(docid, " + SEARCH_COLUMNS + ")" +
+                " VALUES (new." + DecorEntry._ID + ", new." + DecorEntry.COLUMN_DECOR_NAME +
+                ", new." + DecorEntry.COLUMN_DECOR_DESCRIPTION +
+                ", new." + DecorEntry.COLUMN_DECOR_SUPPLIER_NAME + ");";
+    }
+
+    /**
+     * Returns the trigger statement removing the old row from the search index.
+     */
+    private static String unindexDecor() {
+        return " DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid=old." + DecorEntry._ID + ";";
+    }
+
+    /**
+     * Returns the condition of the triggers which only apply to old rows already in the search index.
+     */
+    private static String whenIndexed() {
+        return " WHEN EXISTS (SELECT 1 FROM " + SEARCH_DOCSIZE_TABLE_NAME + " WHERE docid=old." +
+                DecorEntry._ID + ")";
+    }
+
+    /**
+     * Returns the trigger statements adding the given row of the decors table ("new" or "old")
+     * to the aggregates of its material, or taking it out of them.
+     *
+     * @param sign "+" to add the decor, "-" to take it out
+     */
+    private static String aggregateDecor(String row, String sign) {
+        String material = row + "." + DecorEntry.COLUMN_DECOR_MATERIAL;
+        String quantity = row + "." + DecorEntry.COLUMN_DECOR_QUANTITY;
+        String price = row + "." + DecorEntry.COLUMN_DECOR_PRICE;
+        return " INSERT OR IGNORE INTO " + DecorAggregateEntry.TABLE_NAME +
+                " (" + DecorAggregateEntry.COLUMN_MATERIAL + ") VALUES (" + material + ");" +
+                " UPDATE " + DecorAggregateEntry.TABLE_NAME + " SET " +
+                DecorAggregateEntry.COLUMN_DECOR_COUNT + "=" + DecorAggregateEntry.COLUMN_DECOR_COUNT + sign + "1, " +
+                DecorAggregateEntry.COLUMN_TOTAL_QUANTITY + "=" + DecorAggregateEntry.COLUMN_TOTAL_QUANTITY +
+                sign + quantity + ", " +
+                DecorAggregateEntry.COLUMN_INVENTORY_VALUE + "=" + DecorAggregateEntry.COLUMN_INVENTORY_VALUE +
+                sign + "(" + price + " * " + quantity + "), " +
+                DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT + "=" + DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT +
+                sign + "(" + quantity + " <= 0)" +
+                " WHERE " + DecorAggregateEntry.COLUMN_MATERIAL + "=" + material + ";";
+    }
+
+    /**
+     * Returns the trigger statement computing the stock margin of the new row.
+     */
+    private static String updateStockMargin() {
+        return " UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_STOCK_MARGIN + "=" +
+                "new." + DecorEntry.COLUMN_DECOR_QUANTITY + " - new." + DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD +
+                " WHERE " + DecorEntry._ID + "=new." + DecorEntry._ID + ";";
+    }
+
+    /**
+     * Returns the trigger statement marking the given row ("new" or "old") for the next
+     * low stock scan.
+     */
+    private static String markLowStockDirty(String row) {
+        return " INSERT OR IGNORE INTO " + LOW_STOCK_DIRTY_TABLE_NAME + " (" + DecorLowStockEntry.COLUMN_DECOR_ID +
+                ") VALUES (" + row + "." + DecorEntry._ID + ");";
+    }
+
+    /**
+     * This is called when the database connection is being configured, before it's created
+     * or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous=" + mSynchronous);
+        if (db.isWriteAheadLoggingEnabled()) {
+            // This pragma returns the new value as a row, so it cannot go through execSQL()
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + mWalAutoCheckpointPages, null);
+        }
+    }
+
+    /**
+     * Copies the content of the write-ahead log back into the database file without waiting
+     * for readers. Useful after large writes, so the log doesn't keep growing and the readers
+     * don't have to look through it. Does nothing if write-ahead logging is disabled.
+     */
+    public void checkpoint() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.isWriteAheadLoggingEnabled()) {
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_checkpoint(PASSIVE)", null);
+        }
     }
 
     /**
@@ -60,15 +343,52 @@ public class DecorDbHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(SQL_CREATE_PAGE_INDEX);
+        db.execSQL(SQL_CREATE_SEARCH_INDEX);
+        for (String trigger : SQL_CREATE_SEARCH_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(SQL_CREATE_AGGREGATES);
+        for (String trigger : SQL_CREATE_AGGREGATES_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(SQL_CREATE_STOCK_MARGIN_INDEX);
+        db.execSQL(SQL_CREATE_LOW_STOCK_DIRTY);
+        db.execSQL(SQL_CREATE_LOW_STOCK);
+        for (String trigger : SQL_CREATE_STOCK_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(DecorMigrations.SQL_CREATE_BACKGROUND_MIGRATIONS);
         Log.e(DATABASE_NAME, "on create with DbHelper:" + SQL_CREATE_ENTRIES);
     }
 
     /**
-     * This is called when the database is upgraded.
+     * This is called when the database is upgraded. Every step from {@link DecorMigrations}
+     * is applied on top of the previous one, so the existing decors are kept.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+        DecorMigrations.upgrade(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run the next chunk of the pending background migrations. Every chunk is a separate,
+     * short transaction, so the migrations never block other writers for long.
+     * This is slow, so it should never be called on the main thread.
+     *
+     * @return whether any background migration is still pending
+     */
+    public boolean runBackgroundMigrationChunk() {
+        return DecorMigrations.runBackgroundMigrationChunk(getWritableDatabase(), mBackgroundMigrations);
+    }
+
+    /**
+     * Run all pending background migrations, chunk by chunk.
+     * This is slow, so it should never be called on the main thread.
+     */
+    public void runBackgroundMigrations() {
+        while (runBackgroundMigrationChunk()) {
+            // Keep going until no migration is pending
+        }
     }
 }
@@ -0,0 +1,278 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Base64;
+import android.util.Base64OutputStream;
+import android.util.Log;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * {@link DecorExporter} writes all decors to a stream as CSV or JSON, with the columns read by
+ * {@link DecorImporter}, so an export can be imported again.
+ * <p>
+ * The decors are read in pages by ID and written right away, and images are streamed from the
+ * image store, or in chunks from the BLOBs not moved there yet, so the memory taken doesn't
+ * depend on the number of decors. Each page is a short read of its own, so an export never
+ * holds the database while it waits for a slow reader.
+ */
+public class DecorExporter {
+
+    private static final String LOG_TAG = DecorExporter.class.getSimpleName();
+
+    /**
+     * Number of decors read from the database at once
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Name of the column holding the Base64 encoded images
+     */
+    private static final String IMAGE_COLUMN = DecorEntry.COLUMN_DECOR_IMAGE;
+
+    private static final String[] COLUMNS = {
+            DecorEntry._ID,
+            DecorEntry.COLUMN_DECOR_NAME,
+            DecorEntry.COLUMN_DECOR_DESCRIPTION,
+            DecorEntry.COLUMN_DECOR_MATERIAL,
+            DecorEntry.COLUMN_DECOR_HEIGHT,
+            DecorEntry.COLUMN_DECOR_PRICE,
+            DecorEntry.COLUMN_DECOR_QUANTITY,
+            DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD,
+            DecorEntry.COLUMN_DECOR_SUPPLIER_NAME,
+            DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL,
+            DecorEntry.COLUMN_DECOR_IMAGE_HASH,
+            // The length of a BLOB image doesn't read the image itself
+            "length(" + DecorEntry.COLUMN_DECOR_IMAGE + ")"
+    };
+
+    /**
+     * Number of the exported columns, without the image hash and the length of the BLOB image
+     */
+    private static final int EXPORTED_COLUMN_COUNT = COLUMNS.length - 2;
+
+    private static final int IMAGE_HASH_INDEX = EXPORTED_COLUMN_COUNT;
+    private static final int BLOB_IMAGE_LENGTH_INDEX = EXPORTED_COLUMN_COUNT + 1;
+
+    private final SQLiteDatabase mDatabase;
+    private final DecorImageStore mImageStore;
+
+    public DecorExporter(SQLiteDatabase database, DecorImageStore imageStore) {
+        mDatabase = database;
+        mImageStore = imageStore;
+    }
+
+    /**
+     * Writes all decors to the given stream, which is closed afterwards.
+     *
+     * @param images whether the images are written, as Base64
+     * @throws IOException if the stream cannot be written, like when the reader closed it
+     */
+    public void export(OutputStream out, DecorImporter.Format format, boolean images) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        try {
+            if (format == DecorImporter.Format.JSON) {
+                writer.write('[');
+            } else {
+                writeCsvHeader(writer, images);
+            }
+
+            long lastId = -1;
+            boolean first = true;
+            while (true) {
+                Cursor cursor = mDatabase.query(DecorEntry.TABLE_NAME, COLUMNS, DecorEntry._ID + ">?",
+                        new String[]{String.valueOf(lastId)}, null, null, DecorEntry._ID,
+                        String.valueOf(PAGE_SIZE));
+                int count;
+                try {
+                    count = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        if (format == DecorImporter.Format.JSON) {
+                            writer.write(first ? "\n" : ",\n");
+                            writeJsonRecord(writer, out, cursor, images);
+                        } else {
+                            writeCsvRecord(writer, out, cursor, images);
+                        }
+                        first = false;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (count < PAGE_SIZE) {
+                    break;
+                }
+            }
+
+            if (format == DecorImporter.Format.JSON) {
+                writer.write("\n]\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeCsvHeader(Writer writer, boolean images) throws IOException {
+        for (int i = 0; i < EXPORTED_COLUMN_COUNT; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        if (images) {
+            writer.write(',');
+            writer.write(IMAGE_COLUMN);
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeCsvRecord(Writer writer, OutputStream out, Cursor cursor, boolean images)
+            throws IOException {
+        for (int i = 0; i < EXPORTED_COLUMN_COUNT; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = cursor.getString(i);
+            if (value != null) {
+                writeCsvValue(writer, value);
+            }
+        }
+        if (images) {
+            writer.write(',');
+            InputStream image = openImage(cursor);
+            if (image != null) {
+                writeImage(writer, out, image);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Writes the given CSV value, quoted if it holds a separator, a quote or a line break.
+     */
+    private static void writeCsvValue(Writer writer, String value) throws IOException {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quoted) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private void writeJsonRecord(Writer writer, OutputStream out, Cursor cursor, boolean images)
+            throws IOException {
+        writer.write('{');
+        for (int i = 0; i < EXPORTED_COLUMN_COUNT; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeJsonString(writer, COLUMNS[i]);
+            writer.write(':');
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    writer.write("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.write(cursor.getString(i));
+                    break;
+                default:
+                    writeJsonString(writer, cursor.getString(i));
+            }
+        }
+        if (images) {
+            writer.write(',');
+            writeJsonString(writer, IMAGE_COLUMN);
+            writer.write(':');
+            InputStream image = openImage(cursor);
+            if (image == null) {
+                writer.write("null");
+            } else {
+                writer.write('"');
+                writeImage(writer, out, image);
+                writer.write('"');
+            }
+        }
+        writer.write('}');
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                // JavaScript doesn't allow the line and paragraph separators in strings
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Opens the image of the decor at the position of the cursor: its file in the image store,
+     * or its BLOB not moved there yet. Returns null if the decor has no image, or if its file
+     * is missing, so a single lost image doesn't stop the whole export.
+     */
+    private InputStream openImage(Cursor cursor) {
+        String hash = cursor.getString(IMAGE_HASH_INDEX);
+        if (hash != null) {
+            try {
+                return new FileInputStream(mImageStore.getFile(hash));
+            } catch (FileNotFoundException e) {
+                Log.w(LOG_TAG, "Image " + hash + " of decor " + cursor.getLong(0) + " is missing", e);
+                return null;
+            }
+        }
+        if (!cursor.isNull(BLOB_IMAGE_LENGTH_INDEX)) {
+            return new DecorBlobInputStream(mDatabase, cursor.getLong(0), cursor.getLong(BLOB_IMAGE_LENGTH_INDEX));
+        }
+        return null;
+    }
+
+    /**
+     * Writes the given image as Base64, streamed right into the output, and closes it.
+     */
+    private static void writeImage(Writer writer, OutputStream out, InputStream in) throws IOException {
+        // The text written so far must come first
+        writer.flush();
+        OutputStream base64 = new Base64OutputStream(out, Base64.NO_WRAP | Base64.NO_CLOSE);
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                base64.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+            // Writes the last bytes, but leaves the output open
+            base64.close();
+        }
+    }
+}
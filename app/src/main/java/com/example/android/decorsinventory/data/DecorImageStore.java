@@ -0,0 +1,162 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed store for decor images kept in the app's files directory.
+ * <p>
+ * Every image is saved in a file named after the SHA-256 hash of its bytes, so identical images
+ * are stored only once and the decors table only needs to keep the hash as a reference.
+ */
+public class DecorImageStore {
+
+    /**
+     * Name of the directory (inside the app's files directory) that holds the images
+     */
+    private static final String DIRECTORY_NAME = "decor_images";
+
+    /**
+     * Suffix of files which are still being written
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Directory that holds the images
+     */
+    private final File mDirectory;
+
+    /**
+     * Constructs a new instance of {@link DecorImageStore}.
+     *
+     * @param context of the app
+     */
+    public DecorImageStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Save the given image in the store, unless the same image is already there.
+     *
+     * @param image encoded image bytes
+     * @return hash of the image, which identifies it in the store
+     * @throws IOException if the image cannot be written
+     */
+    public String put(byte[] image) throws IOException {
+        String hash = hash(image);
+        File file = getFile(hash);
+        if (file.exists()) {
+            return hash;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create image directory " + mDirectory);
+        }
+
+        // Write to a temporary file first, so a half-written image never appears under its hash
+        File tempFile = new File(mDirectory, hash + TEMP_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(image);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot move image to " + file);
+        }
+        return hash;
+    }
+
+    /**
+     * Save the image read from the given stream in the store, unless the same image is already
+     * there. The image is hashed while it's copied, so it's never held in memory as a whole.
+     * The stream is not closed.
+     *
+     * @return hash of the image, which identifies it in the store
+     * @throws IOException if the image cannot be read or written
+     */
+    public String put(InputStream image) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create image directory " + mDirectory);
+        }
+
+        // The hash is only known at the end, so the temporary file gets a unique name instead
+        MessageDigest digest = newDigest();
+        File tempFile = File.createTempFile("image", TEMP_SUFFIX, mDirectory);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = image.read(buffer)) != -1) {
+                    digest.update(buffer, 0, length);
+                    outputStream.write(buffer, 0, length);
+                }
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+
+            String hash = toHex(digest.digest());
+            File file = getFile(hash);
+            if (!file.exists() && !tempFile.renameTo(file)) {
+                throw new IOException("Cannot move image to " + file);
+            }
+            return hash;
+        } finally {
+            // Already gone if it was renamed
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Returns the file of the image with the given hash. The file may not exist.
+     */
+    public File getFile(String hash) {
+        return new File(mDirectory, hash);
+    }
+
+    /**
+     * Remove the image with the given hash from the store.
+     *
+     * @return whether the image was removed
+     */
+    public boolean delete(String hash) {
+        return getFile(hash).delete();
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the given bytes.
+     */
+    private static String hash(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,493 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link DecorImporter} imports decors from a CSV or JSON file, read from a content URI.
+ * <p>
+ * The file is streamed: records are parsed one by one, checked with
+ * {@link DecorEntry#validateNewDecor(ContentValues)} and inserted in chunks, each chunk in its
+ * own transaction through {@link ContentResolver#bulkInsert(Uri, ContentValues[])}. Only one chunk
+ * is held in memory at a time, so importing a huge file takes as much memory as a small one.
+ * Invalid records are reported and skipped, the other ones are still imported.
+ * <p>
+ * A CSV file starts with a header naming the columns of the decors table, like
+ * {@code name,material,price,quantity}. A JSON file holds an array of objects with the same
+ * keys. Materials are given by their numbers or names ("glass", "wood", ...). Other columns
+ * are ignored.
+ */
+public class DecorImporter {
+
+    /**
+     * Formats of the imported files
+     */
+    public enum Format {
+        CSV, JSON
+    }
+
+    /**
+     * Receives the progress of an import, on the importing thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after each committed chunk.
+         *
+         * @param records  number of records read so far
+         * @param inserted number of decors inserted so far
+         * @param failed   number of invalid records so far
+         */
+        void onProgress(int records, int inserted, int failed);
+
+        /**
+         * Called for an invalid record, which is skipped.
+         *
+         * @param position line of the record in a CSV file, or its number in a JSON file
+         * @param message  what is wrong with the record
+         */
+        void onRecordError(int position, String message);
+    }
+
+    /**
+     * Number of decors inserted in a single transaction, unless given otherwise
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Longest value accepted in a file, so a broken file (like a quote which is never closed)
+     * can't fill the memory
+     */
+    private static final int MAX_VALUE_LENGTH = 64 * 1024;
+
+    /**
+     * Byte order mark, as decoded from the start of a UTF-8 file
+     */
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /**
+     * Columns which can be imported, and their types
+     */
+    private static final String[] STRING_COLUMNS = {
+            DecorEntry.COLUMN_DECOR_NAME,
+            DecorEntry.COLUMN_DECOR_DESCRIPTION,
+            DecorEntry.COLUMN_DECOR_SUPPLIER_NAME,
+            DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL
+    };
+    private static final String[] INTEGER_COLUMNS = {
+            DecorEntry.COLUMN_DECOR_HEIGHT,
+            DecorEntry.COLUMN_DECOR_QUANTITY,
+            DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD
+    };
+
+    /**
+     * Names of the materials, at the index of their numbers
+     */
+    private static final String[] MATERIAL_NAMES = {"unspecified", "glass", "wood", "metal", "fabric"};
+
+    private final ContentResolver mResolver;
+    private final int mChunkSize;
+
+    /**
+     * Reads the records of a file one by one.
+     */
+    private interface RecordReader {
+
+        /**
+         * Reads the next record into the given values. Returns false at the end of the file.
+         *
+         * @throws IllegalArgumentException if the record has an invalid value; the reader
+         *                                  stays at the next record
+         */
+        boolean next(ContentValues values) throws IOException;
+
+        /**
+         * Returns the position of the record read last, as given to {@link Listener#onRecordError}.
+         */
+        int getPosition();
+    }
+
+    /**
+     * @param chunkSize number of decors inserted in a single transaction
+     */
+    public DecorImporter(ContentResolver resolver, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive number");
+        }
+        mResolver = resolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the format of the file with the given MIME type and name, CSV unless it's JSON.
+     */
+    public static Format detectFormat(String mimeType, String name) {
+        if ((mimeType != null && mimeType.contains("json"))
+                || (name != null && name.toLowerCase(Locale.US).endsWith(".json"))) {
+            return Format.JSON;
+        }
+        return Format.CSV;
+    }
+
+    /**
+     * Imports the decors from the file with the given URI. The decors of the chunks committed
+     * before an I/O error stay imported.
+     *
+     * @return number of inserted decors
+     * @throws IOException if the file cannot be read, or it's not a CSV or JSON file at all
+     */
+    public int importDecors(Uri source, Format format, Listener listener) throws IOException {
+        InputStream in = mResolver.openInputStream(source);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + source);
+        }
+        Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            RecordReader records = format == Format.JSON ?
+                    new JsonRecordReader(new JsonReader(reader)) : new CsvRecordReader(reader);
+            return importRecords(records, listener);
+        } catch (IllegalStateException e) {
+            // Thrown by the JSON reader when the file doesn't have the expected structure
+            throw new IOException("Invalid file " + source + ": " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private int importRecords(RecordReader records, Listener listener) throws IOException {
+        ContentValues[] chunk = new ContentValues[mChunkSize];
+        int chunkLength = 0;
+        int recordCount = 0;
+        int inserted = 0;
+        int failed = 0;
+
+        while (true) {
+            ContentValues values = new ContentValues();
+            boolean valid;
+            try {
+                if (!records.next(values)) {
+                    break;
+                }
+                DecorEntry.validateNewDecor(values);
+                valid = true;
+            } catch (IllegalArgumentException e) {
+                listener.onRecordError(records.getPosition(), e.getMessage());
+                valid = false;
+            }
+            recordCount++;
+
+            if (valid) {
+                chunk[chunkLength++] = values;
+            } else {
+                failed++;
+            }
+            if (chunkLength == mChunkSize) {
+                inserted += mResolver.bulkInsert(DecorEntry.CONTENT_URI, chunk);
+                chunkLength = 0;
+                listener.onProgress(recordCount, inserted, failed);
+            }
+        }
+
+        if (chunkLength > 0) {
+            ContentValues[] lastChunk = new ContentValues[chunkLength];
+            System.arraycopy(chunk, 0, lastChunk, 0, chunkLength);
+            inserted += mResolver.bulkInsert(DecorEntry.CONTENT_URI, lastChunk);
+        }
+        listener.onProgress(recordCount, inserted, failed);
+        return inserted;
+    }
+
+    /**
+     * Puts the given text value of the given column into the values, converted to the type
+     * of the column. Unknown columns are ignored.
+     *
+     * @throws IllegalArgumentException if the value cannot be converted
+     */
+    private static void putValue(ContentValues values, String column, String value) {
+        if (value == null || value.trim().isEmpty()) {
+            if (isImported(column)) {
+                values.putNull(column);
+            }
+            return;
+        }
+        value = value.trim();
+        try {
+            if (contains(STRING_COLUMNS, column)) {
+                values.put(column, value);
+            } else if (contains(INTEGER_COLUMNS, column)) {
+                values.put(column, Integer.parseInt(value));
+            } else if (DecorEntry.COLUMN_DECOR_PRICE.equals(column)) {
+                values.put(column, Double.parseDouble(value));
+            } else if (DecorEntry.COLUMN_DECOR_MATERIAL.equals(column)) {
+                values.put(column, parseMaterial(value));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    private static int parseMaterial(String value) {
+        for (int material = 0; material < MATERIAL_NAMES.length; material++) {
+            if (MATERIAL_NAMES[material].equalsIgnoreCase(value)) {
+                return material;
+            }
+        }
+        return Integer.parseInt(value);
+    }
+
+    private static boolean isImported(String column) {
+        return contains(STRING_COLUMNS, column) || contains(INTEGER_COLUMNS, column)
+                || DecorEntry.COLUMN_DECOR_PRICE.equals(column) || DecorEntry.COLUMN_DECOR_MATERIAL.equals(column);
+    }
+
+    private static boolean contains(String[] columns, String column) {
+        for (String c : columns) {
+            if (c.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads RFC 4180 CSV records: values separated by commas, optionally quoted with double
+     * quotes, which may then hold commas, line breaks and doubled quotes.
+     */
+    private static class CsvRecordReader implements RecordReader {
+
+        private final Reader mReader;
+        private final List<String> mHeader = new ArrayList<>();
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+
+        /**
+         * Whether the columns of the header are imported, by their index
+         */
+        private boolean[] mImportedColumns;
+
+        /**
+         * Line the next record starts at, and the line the last record started at
+         */
+        private int mLine = 1;
+        private int mRecordLine;
+
+        /**
+         * Character read ahead, or -2 if none
+         */
+        private int mPeeked = -2;
+
+        CsvRecordReader(Reader reader) throws IOException {
+            mReader = reader;
+            // Skip the byte order mark spreadsheets put at the start of UTF-8 files, or it would
+            // become part of the first column name
+            if (peek() == BYTE_ORDER_MARK) {
+                mPeeked = -2;
+            }
+            if (!readRecord(mHeader)) {
+                throw new IOException("The file is empty");
+            }
+            for (int i = 0; i < mHeader.size(); i++) {
+                mHeader.set(i, mHeader.get(i).trim().toLowerCase(Locale.US));
+            }
+            if (!mHeader.contains(DecorEntry.COLUMN_DECOR_NAME)) {
+                throw new IOException("The header doesn't name the " + DecorEntry.COLUMN_DECOR_NAME + " column");
+            }
+            mImportedColumns = new boolean[mHeader.size()];
+            for (int i = 0; i < mImportedColumns.length; i++) {
+                mImportedColumns[i] = isImported(mHeader.get(i));
+            }
+        }
+
+        @Override
+        public boolean next(ContentValues values) throws IOException {
+            do {
+                if (!readRecord(mFields)) {
+                    return false;
+                }
+                // Skip blank lines
+            } while (mFields.size() == 1 && mFields.get(0).isEmpty());
+
+            if (mFields.size() > mHeader.size()) {
+                throw new IllegalArgumentException("Record has " + mFields.size() + " values, the header only "
+                        + mHeader.size());
+            }
+            for (int i = 0; i < mFields.size(); i++) {
+                putValue(values, mHeader.get(i), mFields.get(i));
+            }
+            return true;
+        }
+
+        @Override
+        public int getPosition() {
+            return mRecordLine;
+        }
+
+        /**
+         * Reads the values of the next record into the given list. Returns false at the end of the file.
+         */
+        private boolean readRecord(List<String> fields) throws IOException {
+            fields.clear();
+            mRecordLine = mLine;
+            int c = read();
+            if (c == -1) {
+                return false;
+            }
+
+            mField.setLength(0);
+            boolean quoted = false;
+            // Whether anything of the current value was read, even if it's skipped
+            boolean started = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Quote opened on line " + mRecordLine + " is never closed");
+                    }
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            read();
+                            append(fields, '"');
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        append(fields, (char) c);
+                    }
+                } else if (c == '"' && !started) {
+                    quoted = true;
+                    started = true;
+                } else if (c == ',') {
+                    fields.add(mField.toString());
+                    mField.setLength(0);
+                    started = false;
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    fields.add(mField.toString());
+                    return true;
+                } else {
+                    append(fields, (char) c);
+                    started = true;
+                }
+                c = read();
+            }
+        }
+
+        private void append(List<String> fields, char c) throws IOException {
+            // Values of ignored columns, like the images of an export, are skipped
+            int column = fields.size();
+            if (fields != mHeader && (column >= mImportedColumns.length || !mImportedColumns[column])) {
+                return;
+            }
+            if (mField.length() == MAX_VALUE_LENGTH) {
+                throw new IOException("Value on line " + mRecordLine + " is longer than "
+                        + MAX_VALUE_LENGTH + " characters");
+            }
+            mField.append(c);
+        }
+
+        private int read() throws IOException {
+            int c;
+            if (mPeeked != -2) {
+                c = mPeeked;
+                mPeeked = -2;
+            } else {
+                c = mReader.read();
+            }
+            if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                mLine++;
+            }
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (mPeeked == -2) {
+                mPeeked = mReader.read();
+            }
+            return mPeeked;
+        }
+    }
+
+    /**
+     * Reads the objects of a JSON array, one by one.
+     */
+    private static class JsonRecordReader implements RecordReader {
+
+        private final JsonReader mReader;
+        private int mRecord;
+
+        JsonRecordReader(JsonReader reader) throws IOException {
+            mReader = reader;
+            mReader.beginArray();
+        }
+
+        @Override
+        public boolean next(ContentValues values) throws IOException {
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                return false;
+            }
+            mRecord++;
+            if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+                mReader.skipValue();
+                throw new IllegalArgumentException("Record is not an object");
+            }
+
+            // Read the whole object before reporting an invalid value, so the reader stays
+            // at the next record
+            IllegalArgumentException error = null;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String column = mReader.nextName().toLowerCase(Locale.US);
+                JsonToken token = mReader.peek();
+                if (token == JsonToken.NULL) {
+                    mReader.nextNull();
+                    putValue(values, column, null);
+                } else if (token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN) {
+                    String value = token == JsonToken.BOOLEAN ?
+                            String.valueOf(mReader.nextBoolean()) : mReader.nextString();
+                    if (value.length() > MAX_VALUE_LENGTH) {
+                        throw new IOException("Value of record " + mRecord + " is longer than "
+                                + MAX_VALUE_LENGTH + " characters");
+                    }
+                    try {
+                        putValue(values, column, value);
+                    } catch (IllegalArgumentException e) {
+                        error = e;
+                    }
+                } else {
+                    mReader.skipValue();
+                    if (isImported(column)) {
+                        error = new IllegalArgumentException("Invalid " + column + ": not a single value");
+                    }
+                }
+            }
+            mReader.endObject();
+
+            if (error != null) {
+                throw error;
+            }
+            return true;
+        }
+
+        @Override
+        public int getPosition() {
+            return mRecord;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+import com.example.android.decorsinventory.data.DecorContract.DecorLowStockEntry;
+
+/**
+ * Keeps the low stock table up to date. The triggers of the decors table mark every decor whose
+ * stock changed, and a scan only looks at the marked decors, a chunk at a time, so its cost
+ * depends on the number of changes and not on the number of decors.
+ */
+final class DecorLowStockScanner {
+
+    /**
+     * Number of changed decors scanned in a single transaction
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /**
+     * The decors of the chunk: every marked decor up to the given ID
+     */
+    private static final String CHUNK_IDS = "SELECT " + DecorLowStockEntry.COLUMN_DECOR_ID +
+            " FROM " + DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME + " WHERE " + DecorLowStockEntry.COLUMN_DECOR_ID + "<=?";
+
+    /**
+     * Condition of the decors low on stock, backed by the stock margin index
+     */
+    private static final String LOW_STOCK_SELECTION = DecorEntry.COLUMN_DECOR_STOCK_MARGIN + "<=0";
+
+    private DecorLowStockScanner() {
+    }
+
+    /**
+     * Scan the next chunk of the decors changed since the last scan in its own transaction.
+     * Decors low on stock are added to the low stock table (keeping the time they were first
+     * found), the others are removed from it.
+     *
+     * @return number of decors scanned, 0 if no decor changed
+     */
+    static int scanChunk(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            int count;
+            long lastId;
+            Cursor cursor = db.rawQuery("SELECT COUNT(*), MAX(" + DecorLowStockEntry.COLUMN_DECOR_ID + ") FROM (" +
+                    "SELECT " + DecorLowStockEntry.COLUMN_DECOR_ID + " FROM " + DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME +
+                    " ORDER BY " + DecorLowStockEntry.COLUMN_DECOR_ID + " LIMIT " + CHUNK_SIZE + ")", null);
+            try {
+                cursor.moveToFirst();
+                count = cursor.getInt(0);
+                lastId = cursor.getLong(1);
+            } finally {
+                cursor.close();
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            db.execSQL("DELETE FROM " + DecorLowStockEntry.TABLE_NAME +
+                    " WHERE " + DecorLowStockEntry.COLUMN_DECOR_ID + " IN (" + CHUNK_IDS + ")" +
+                    " AND " + DecorLowStockEntry.COLUMN_DECOR_ID + " NOT IN (SELECT " + DecorEntry._ID +
+                    " FROM " + DecorEntry.TABLE_NAME + " WHERE " + DecorEntry._ID + " IN (" + CHUNK_IDS + ")" +
+                    " AND " + LOW_STOCK_SELECTION + ")", new Object[]{lastId, lastId});
+            db.execSQL("INSERT OR IGNORE INTO " + DecorLowStockEntry.TABLE_NAME + " (" +
+                    DecorLowStockEntry.COLUMN_DECOR_ID + ", " + DecorLowStockEntry.COLUMN_DETECTED_AT + ")" +
+                    " SELECT " + DecorEntry._ID + ", ? FROM " + DecorEntry.TABLE_NAME +
+                    " WHERE " + DecorEntry._ID + " IN (" + CHUNK_IDS + ") AND " + LOW_STOCK_SELECTION,
+                    new Object[]{System.currentTimeMillis(), lastId});
+            db.execSQL("DELETE FROM " + DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME +
+                    " WHERE " + DecorLowStockEntry.COLUMN_DECOR_ID + "<=?", new Object[]{lastId});
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Rebuild the low stock table from all decors, through the stock margin index, so only the
+     * decors low on stock are read. Should be called in a transaction.
+     *
+     * @return number of decors low on stock
+     */
+    static int rebuild(SQLiteDatabase db) {
+        db.delete(DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME, null, null);
+        db.delete(DecorLowStockEntry.TABLE_NAME, DecorLowStockEntry.COLUMN_DECOR_ID + " NOT IN (SELECT " +
+                DecorEntry._ID + " FROM " + DecorEntry.TABLE_NAME + " WHERE " + LOW_STOCK_SELECTION + ")", null);
+        db.execSQL("INSERT OR IGNORE INTO " + DecorLowStockEntry.TABLE_NAME + " (" +
+                DecorLowStockEntry.COLUMN_DECOR_ID + ", " + DecorLowStockEntry.COLUMN_DETECTED_AT + ")" +
+                " SELECT " + DecorEntry._ID + ", ? FROM " + DecorEntry.TABLE_NAME + " WHERE " + LOW_STOCK_SELECTION,
+                new Object[]{System.currentTimeMillis()});
+        return (int) DatabaseUtils.queryNumEntries(db, DecorLowStockEntry.TABLE_NAME);
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step of the database upgrade, which brings the schema from the previous version
+ * to {@link #getVersion()}. Steps run in the upgrade transaction, so they must be quick:
+ * work proportional to the number of decors belongs to a {@link DecorBackgroundMigration}.
+ */
+public abstract class DecorMigration {
+
+    /**
+     * Database version this step upgrades to
+     */
+    private final int mVersion;
+
+    /**
+     * Constructs a new step upgrading the database to the given version.
+     */
+    protected DecorMigration(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * Returns the database version this step upgrades to.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Upgrade the schema of the given database from the previous version.
+     */
+    public abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,380 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+import com.example.android.decorsinventory.data.DecorContract.DecorLowStockEntry;
+
+import java.io.IOException;
+
+/**
+ * All steps of the database upgrade, in order, and the runner of the migrations left
+ * to the background.
+ * <p>
+ * To change the schema, increment {@link DecorDbHelper#DATABASE_VERSION}, update the CREATE
+ * statements in {@link DecorDbHelper} and append a {@link DecorMigration} for the new version
+ * to {@link #getMigrations()}. Never modify a step that has already been released.
+ */
+final class DecorMigrations {
+
+    /**
+     * Name of the table which keeps the progress of the pending background migrations
+     */
+    static final String BACKGROUND_MIGRATIONS_TABLE = "background_migrations";
+
+    /**
+     * Name of the migration (name column of the background migrations table)
+     * <p>
+     * Type: TEXT
+     */
+    static final String COLUMN_NAME = "name";
+
+    /**
+     * ID of the last row migrated so far (last_id column of the background migrations table)
+     * <p>
+     * Type: INTEGER
+     */
+    static final String COLUMN_LAST_ID = "last_id";
+
+    static final String SQL_CREATE_BACKGROUND_MIGRATIONS =
+            "CREATE TABLE IF NOT EXISTS " + BACKGROUND_MIGRATIONS_TABLE + " (" +
+                    COLUMN_NAME + " TEXT PRIMARY KEY, " +
+                    COLUMN_LAST_ID + " INTEGER NOT NULL DEFAULT 0);";
+
+    /**
+     * Name of the background migration moving image BLOBs out of the decors table
+     */
+    static final String MOVE_IMAGES_TO_STORE = "move_images_to_store";
+
+    /**
+     * Number of images moved in a single transaction. Images are big, so it's kept small.
+     */
+    private static final int MOVE_IMAGES_CHUNK_SIZE = 20;
+
+    /**
+     * Name of the background migration adding the existing decors to the search index
+     */
+    static final String INDEX_DECORS_FOR_SEARCH = "index_decors_for_search";
+
+    /**
+     * Number of decors added to the search index in a single transaction
+     */
+    private static final int INDEX_DECORS_CHUNK_SIZE = 500;
+
+    /**
+     * Name of the background migration computing the stock margins of the existing decors
+     */
+    static final String COMPUTE_STOCK_MARGINS = "compute_stock_margins";
+
+    /**
+     * Number of decors whose stock margins are computed in a single transaction
+     */
+    private static final int COMPUTE_STOCK_MARGINS_CHUNK_SIZE = 500;
+
+    private static final String LOG_TAG = DecorMigrations.class.getSimpleName();
+
+    private DecorMigrations() {
+    }
+
+    /**
+     * Returns all upgrade steps, ordered by the version they upgrade to.
+     */
+    static DecorMigration[] getMigrations() {
+        return new DecorMigration[]{
+                // Version 2 keeps images in the image store and only their hashes in the table.
+                // Moving the images out is left to the background.
+                new DecorMigration(2) {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        addColumn(db, DecorEntry.COLUMN_DECOR_IMAGE_HASH, "TEXT");
+                        db.execSQL(SQL_CREATE_BACKGROUND_MIGRATIONS);
+                        scheduleBackgroundMigration(db, MOVE_IMAGES_TO_STORE);
+                    }
+                },
+                // Version 3 tracks which images have their thumbnails generated.
+                // The provider generates the missing ones in the background.
+                new DecorMigration(3) {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        addColumn(db, DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH, "TEXT");
+                    }
+                },
+                // Version 4 keeps the progress of background migrations. Databases upgraded
+                // to version 2 before the migrations were moved to the background lack it.
+                new DecorMigration(4) {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        db.execSQL(SQL_CREATE_BACKGROUND_MIGRATIONS);
+                    }
+                },
+                // Version 5 adds the full-text search index kept in sync by triggers.
+                // The existing decors are indexed in the background.
+                new DecorMigration(5) {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        db.execSQL(DecorDbHelper.SQL_CREATE_SEARCH_INDEX);
+                        for (String trigger : DecorDbHelper.SQL_CREATE_SEARCH_TRIGGERS) {
+                            db.execSQL(trigger);
+                        }
+                        scheduleBackgroundMigration(db, INDEX_DECORS_FOR_SEARCH);
+                    }
+                },
+                // Version 6 adds the index backing the paginated queries
+                new DecorMigration(6) {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        db.execSQL(DecorDbHelper.SQL_CREATE_PAGE_INDEX);
+                    }
+                },
+                // Version 7 adds the inventory aggregates kept in sync by triggers. They're
+                // summed up in a single query, the app cannot show them while half done.
+                new DecorMigration(7) {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        db.execSQL(DecorDbHelper.SQL_CREATE_AGGREGATES);
+                        db.execSQL(DecorDbHelper.SQL_POPULATE_AGGREGATES);
+                        for (String trigger : DecorDbHelper.SQL_CREATE_AGGREGATES_TRIGGERS) {
+                            db.execSQL(trigger);
+                        }
+                    }
+                },
+                // Version 8 adds the reorder thresholds and the low stock table. The stock
+                // margins of the existing decors are computed in the background, which marks
+                // them for the low stock scan building the table.
+                new DecorMigration(8) {
+                    @Override
+                    public void migrate(SQLiteDatabase db) {
+                        addColumn(db, DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD, "INTEGER NOT NULL DEFAULT 0");
+                        addColumn(db, DecorEntry.COLUMN_DECOR_STOCK_MARGIN, "INTEGER NOT NULL DEFAULT 0");
+                        db.execSQL(DecorDbHelper.SQL_CREATE_STOCK_MARGIN_INDEX);
+                        db.execSQL(DecorDbHelper.SQL_CREATE_LOW_STOCK_DIRTY);
+                        db.execSQL(DecorDbHelper.SQL_CREATE_LOW_STOCK);
+                        for (String trigger : DecorDbHelper.SQL_CREATE_STOCK_TRIGGERS) {
+                            db.execSQL(trigger);
+                        }
+                        scheduleBackgroundMigration(db, COMPUTE_STOCK_MARGINS);
+                    }
+                }
+        };
+    }
+
+    /**
+     * Returns all background migrations which upgrade steps may schedule.
+     *
+     * @param imageStore store receiving the images moved out of the decors table
+     */
+    static DecorBackgroundMigration[] getBackgroundMigrations(final DecorImageStore imageStore) {
+        return new DecorBackgroundMigration[]{
+                new DecorBackgroundMigration(MOVE_IMAGES_TO_STORE, MOVE_IMAGES_CHUNK_SIZE) {
+                    @Override
+                    public long migrateChunk(SQLiteDatabase db, long afterId) {
+                        return moveImagesToStore(db, imageStore, afterId, getChunkSize());
+                    }
+                },
+                new DecorBackgroundMigration(INDEX_DECORS_FOR_SEARCH, INDEX_DECORS_CHUNK_SIZE) {
+                    @Override
+                    public long migrateChunk(SQLiteDatabase db, long afterId) {
+                        return indexDecorsForSearch(db, afterId, getChunkSize());
+                    }
+                },
+                new DecorBackgroundMigration(COMPUTE_STOCK_MARGINS, COMPUTE_STOCK_MARGINS_CHUNK_SIZE) {
+                    @Override
+                    public long migrateChunk(SQLiteDatabase db, long afterId) {
+                        return computeStockMargins(db, afterId, getChunkSize());
+                    }
+                }
+        };
+    }
+
+    /**
+     * Apply all upgrade steps between the given versions, in order.
+     */
+    static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (DecorMigration migration : getMigrations()) {
+            if (migration.getVersion() > oldVersion && migration.getVersion() <= newVersion) {
+                Log.i(LOG_TAG, "Upgrading database to version " + migration.getVersion());
+                migration.migrate(db);
+            }
+        }
+    }
+
+    /**
+     * Mark the background migration with the given name as pending. Called from upgrade steps.
+     */
+    static void scheduleBackgroundMigration(SQLiteDatabase db, String name) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NAME, name);
+        values.put(COLUMN_LAST_ID, 0);
+        db.insertWithOnConflict(BACKGROUND_MIGRATIONS_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Run the next chunk of the first pending background migration in its own transaction.
+     * Migrations run one after another, in the order they were scheduled.
+     *
+     * @return whether any background migration is still pending
+     */
+    static boolean runBackgroundMigrationChunk(SQLiteDatabase db, DecorBackgroundMigration[] migrations) {
+        String name;
+        long lastId;
+        Cursor cursor = db.query(BACKGROUND_MIGRATIONS_TABLE, new String[]{COLUMN_NAME, COLUMN_LAST_ID},
+                null, null, null, null, "rowid", "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            name = cursor.getString(0);
+            lastId = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+
+        String[] whereArgs = {name};
+        DecorBackgroundMigration migration = findBackgroundMigration(migrations, name);
+        db.beginTransaction();
+        try {
+            if (migration == null) {
+                // Nothing can finish this migration anymore, don't keep trying
+                Log.e(LOG_TAG, "Dropping unknown background migration " + name);
+                db.delete(BACKGROUND_MIGRATIONS_TABLE, COLUMN_NAME + "=?", whereArgs);
+            } else {
+                long migratedId = migration.migrateChunk(db, lastId);
+                if (migratedId == DecorBackgroundMigration.DONE) {
+                    Log.i(LOG_TAG, "Finished background migration " + name);
+                    db.delete(BACKGROUND_MIGRATIONS_TABLE, COLUMN_NAME + "=?", whereArgs);
+                } else {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_LAST_ID, migratedId);
+                    db.update(BACKGROUND_MIGRATIONS_TABLE, values, COLUMN_NAME + "=?", whereArgs);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return true;
+    }
+
+    private static DecorBackgroundMigration findBackgroundMigration(DecorBackgroundMigration[] migrations,
+                                                                    String name) {
+        for (DecorBackgroundMigration migration : migrations) {
+            if (migration.getName().equals(name)) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    private static void addColumn(SQLiteDatabase db, String column, String type) {
+        db.execSQL("ALTER TABLE " + DecorEntry.TABLE_NAME + " ADD COLUMN " + column + " " + type);
+    }
+
+    /**
+     * Move the images of at most chunkSize decors stored as BLOBs in the decors table to the
+     * image store, replacing them with their hashes. Images are streamed in chunks, so neither
+     * a whole image nor a CursorWindow holding it is ever in memory.
+     *
+     * @return ID of the last decor whose image was moved, or {@link DecorBackgroundMigration#DONE}
+     */
+    private static long moveImagesToStore(SQLiteDatabase db, DecorImageStore imageStore,
+                                          long afterId, int chunkSize) {
+        Cursor ids = db.query(DecorEntry.TABLE_NAME, new String[]{DecorEntry._ID},
+                DecorEntry._ID + ">? AND " + DecorEntry.COLUMN_DECOR_IMAGE + " IS NOT NULL",
+                new String[]{String.valueOf(afterId)}, null, null, DecorEntry._ID, String.valueOf(chunkSize));
+        long lastId = DecorBackgroundMigration.DONE;
+        try {
+            while (ids.moveToNext()) {
+                lastId = ids.getLong(0);
+                moveImageToStore(db, imageStore, lastId);
+            }
+        } finally {
+            ids.close();
+        }
+        return lastId;
+    }
+
+    /**
+     * Add the next chunkSize decors to the search index. Decors changed since the index was
+     * created are already there (thanks to the triggers), so the chunk skips them.
+     *
+     * @return ID of the last indexed decor, or {@link DecorBackgroundMigration#DONE}
+     */
+    private static long indexDecorsForSearch(SQLiteDatabase db, long afterId, int chunkSize) {
+        long lastId = findLastIdOfChunk(db, afterId, chunkSize);
+        if (lastId == DecorBackgroundMigration.DONE) {
+            return lastId;
+        }
+
+        db.execSQL("INSERT INTO " + DecorDbHelper.SEARCH_TABLE_NAME +
+                "(docid, " + DecorDbHelper.SEARCH_COLUMNS + ") SELECT " + DecorEntry._ID + ", " +
+                DecorDbHelper.SEARCH_COLUMNS + " FROM " + DecorEntry.TABLE_NAME +
+                " WHERE " + DecorEntry._ID + ">? AND " + DecorEntry._ID + "<=? AND " + DecorEntry._ID +
+                " NOT IN (SELECT docid FROM " + DecorDbHelper.SEARCH_DOCSIZE_TABLE_NAME + ")",
+                new Object[]{afterId, lastId});
+        return lastId;
+    }
+
+    /**
+     * Compute the stock margins of the next chunkSize decors and mark them for the low stock scan.
+     * Decors changed since the upgrade already have their margins, computing them again gives
+     * the same ones.
+     *
+     * @return ID of the last decor of the chunk, or {@link DecorBackgroundMigration#DONE}
+     */
+    private static long computeStockMargins(SQLiteDatabase db, long afterId, int chunkSize) {
+        long lastId = findLastIdOfChunk(db, afterId, chunkSize);
+        if (lastId == DecorBackgroundMigration.DONE) {
+            return lastId;
+        }
+
+        Object[] range = {afterId, lastId};
+        db.execSQL("UPDATE " + DecorEntry.TABLE_NAME + " SET " + DecorEntry.COLUMN_DECOR_STOCK_MARGIN + "=" +
+                DecorEntry.COLUMN_DECOR_QUANTITY + " - " + DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD +
+                " WHERE " + DecorEntry._ID + ">? AND " + DecorEntry._ID + "<=?", range);
+        db.execSQL("INSERT OR IGNORE INTO " + DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME + " (" +
+                DecorLowStockEntry.COLUMN_DECOR_ID + ") SELECT " + DecorEntry._ID + " FROM " + DecorEntry.TABLE_NAME +
+                " WHERE " + DecorEntry._ID + ">? AND " + DecorEntry._ID + "<=?", range);
+        return lastId;
+    }
+
+    /**
+     * Returns the ID of the last of the chunkSize decors following the given ID,
+     * or {@link DecorBackgroundMigration#DONE} if there are none.
+     */
+    private static long findLastIdOfChunk(SQLiteDatabase db, long afterId, int chunkSize) {
+        long lastId = DecorBackgroundMigration.DONE;
+        Cursor cursor = db.rawQuery("SELECT MAX(" + DecorEntry._ID + ") FROM (SELECT " + DecorEntry._ID +
+                " FROM " + DecorEntry.TABLE_NAME + " WHERE " + DecorEntry._ID + ">? ORDER BY " +
+                DecorEntry._ID + " LIMIT " + chunkSize + ")", new String[]{String.valueOf(afterId)});
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                lastId = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return lastId;
+    }
+
+    private static void moveImageToStore(SQLiteDatabase db, DecorImageStore imageStore, long decorId) {
+        // The image may be larger than a CursorWindow, so it's streamed in chunks instead of read at once
+        long length = DecorBlobInputStream.length(db, decorId);
+        if (length < 0) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        try {
+            values.put(DecorEntry.COLUMN_DECOR_IMAGE_HASH,
+                    imageStore.put(new DecorBlobInputStream(db, decorId, length)));
+        } catch (IOException e) {
+            // Keep the BLOB in place, so the image is not lost
+            Log.e(LOG_TAG, "Cannot move image of decor " + decorId, e);
+            return;
+        }
+        values.putNull(DecorEntry.COLUMN_DECOR_IMAGE);
+        db.update(DecorEntry.TABLE_NAME, values, DecorEntry._ID + "=?", new String[]{String.valueOf(decorId)});
+    }
+}
@@ -2,16 +2,56 @@ package com.example.android.decorsinventory.data;
 
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.decorsinventory.data.DecorContract.DecorAggregateEntry;
 import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+import com.example.android.decorsinventory.data.DecorContract.DecorLowStockEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -34,6 +74,156 @@ public class DecorProvider extends ContentProvider {
      */
     private static final int DECOR_ID = 101;
 
+    /**
+     * URI matcher code for the content URI for the image of a single decor
+     */
+    private static final int DECOR_IMAGE = 102;
+
+    /**
+     * URI matcher code for the content URI for a thumbnail of a decor image
+     */
+    private static final int THUMBNAIL = 103;
+
+    /**
+     * URI matcher code for the content URI searching decors by text
+     */
+    private static final int SEARCH = 104;
+
+    /**
+     * URI matcher code for the content URI exporting all decors as a file
+     */
+    private static final int EXPORT = 105;
+
+    /**
+     * URI matcher code for the content URI for the inventory aggregates per material
+     */
+    private static final int AGGREGATES = 106;
+
+    /**
+     * URI matcher code for the content URI for the aggregates of the whole inventory
+     */
+    private static final int AGGREGATES_TOTAL = 107;
+
+    /**
+     * URI matcher code for the content URI for the decors low on stock
+     */
+    private static final int LOW_STOCK = 108;
+
+    /**
+     * The image column of the decors table as it's read: always null. Images not moved to the
+     * image store yet are kept as BLOBs, which may be larger than a CursorWindow, so they're only
+     * read in chunks (see {@link DecorBlobInputStream}), never as a column of a row.
+     */
+    private static final String NULL_IMAGE_COLUMN = "NULL AS " + DecorEntry.COLUMN_DECOR_IMAGE;
+
+    /**
+     * All columns of the decors table, read when no projection is given
+     */
+    private static final String[] DECOR_COLUMNS = {
+            DecorEntry._ID,
+            DecorEntry.COLUMN_DECOR_NAME,
+            DecorEntry.COLUMN_DECOR_DESCRIPTION,
+            DecorEntry.COLUMN_DECOR_MATERIAL,
+            DecorEntry.COLUMN_DECOR_HEIGHT,
+            DecorEntry.COLUMN_DECOR_PRICE,
+            DecorEntry.COLUMN_DECOR_QUANTITY,
+            DecorEntry.COLUMN_DECOR_REORDER_THRESHOLD,
+            DecorEntry.COLUMN_DECOR_STOCK_MARGIN,
+            DecorEntry.COLUMN_DECOR_SUPPLIER_NAME,
+            DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL,
+            NULL_IMAGE_COLUMN,
+            DecorEntry.COLUMN_DECOR_IMAGE_HASH,
+            DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH
+    };
+
+    /**
+     * All columns of the decors low on stock, read when no projection is given
+     */
+    private static final String[] LOW_STOCK_COLUMNS = appendArgs(DECOR_COLUMNS,
+            DecorLowStockEntry.COLUMN_DECOR_ID, DecorLowStockEntry.COLUMN_DETECTED_AT);
+
+    /**
+     * The decors low on stock joined with their columns
+     */
+    private static final String LOW_STOCK_TABLES = DecorLowStockEntry.TABLE_NAME + " JOIN " + DecorEntry.TABLE_NAME +
+            " ON " + DecorEntry.TABLE_NAME + "." + DecorEntry._ID + "=" + DecorLowStockEntry.COLUMN_DECOR_ID;
+
+    /**
+     * Decors low on stock are grouped by supplier, then alphabetically by name
+     */
+    private static final String LOW_STOCK_SORT_ORDER =
+            DecorEntry.COLUMN_DECOR_SUPPLIER_NAME + ", " + DecorEntry.COLUMN_DECOR_NAME;
+
+    /**
+     * The aggregates of the whole inventory, summed up from the few rows per material
+     */
+    private static final String AGGREGATES_TOTAL_TABLE = "(SELECT " +
+            "SUM(" + DecorAggregateEntry.COLUMN_DECOR_COUNT + ") AS " + DecorAggregateEntry.COLUMN_DECOR_COUNT + ", " +
+            "SUM(" + DecorAggregateEntry.COLUMN_TOTAL_QUANTITY + ") AS " + DecorAggregateEntry.COLUMN_TOTAL_QUANTITY + ", " +
+            "TOTAL(" + DecorAggregateEntry.COLUMN_INVENTORY_VALUE + ") AS " + DecorAggregateEntry.COLUMN_INVENTORY_VALUE + ", " +
+            "SUM(" + DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT + ") AS " + DecorAggregateEntry.COLUMN_OUT_OF_STOCK_COUNT +
+            " FROM " + DecorAggregateEntry.TABLE_NAME + ")";
+
+    /**
+     * Name of the column ranking search results: 0 for decors matched by name, 1 for the others
+     */
+    private static final String SEARCH_RANK = "search_rank";
+
+    /**
+     * Search results which match by name come first, then alphabetically by name
+     */
+    private static final String SEARCH_SORT_ORDER =
+            SEARCH_RANK + ", " + DecorEntry.TABLE_NAME + "." + DecorEntry.COLUMN_DECOR_NAME;
+
+    /**
+     * Number of rows written by a single bulk operation, after which the write-ahead log
+     * is checkpointed right away.
+     */
+    private static final int CHECKPOINT_ROW_THRESHOLD = 1000;
+
+    /**
+     * Time to wait for the background work to finish when the provider is shut down
+     */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    /**
+     * Pattern of a valid image hash, so a URI cannot point outside of the thumbnail store
+     */
+    private static final String IMAGE_HASH_PATTERN = "[0-9a-f]+";
+
+    /**
+     * Separator used to join column names in generated SQL
+     */
+    private static final String COMMA_SEP = ", ";
+
+    /**
+     * Maximum approximate heap size of the cached single decors
+     */
+    private static final int ROW_CACHE_SIZE_BYTES = 256 * 1024;
+
+    /**
+     * Duration above which the queries are logged with their plans, unless set otherwise
+     * through {@link DecorEntry#METHOD_SET_SLOW_QUERY_THRESHOLD}
+     */
+    private static final long SLOW_QUERY_THRESHOLD_MILLIS = 50;
+
+    /**
+     * Number of the most recent slow queries kept in the log
+     */
+    private static final int SLOW_QUERY_LOG_CAPACITY = 32;
+
+    /**
+     * Methods known to {@link #call(String, String, Bundle)}, whose indexes key their metrics
+     */
+    private static final String[] CALL_METHODS = {
+            DecorEntry.METHOD_SELL,
+            DecorEntry.METHOD_ROW_CACHE_STATS,
+            DecorEntry.METHOD_METRICS,
+            DecorEntry.METHOD_SET_SLOW_QUERY_THRESHOLD,
+            DecorLowStockEntry.METHOD_SCAN_LOW_STOCK,
+            DecorEntry.METHOD_READ_IMAGE_CHUNK
+    };
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -60,6 +250,41 @@ public class DecorProvider extends ContentProvider {
         // For example, "content://com.example.android.decorsinventory/decors/3" matches, but
         // "content://com.example.android.decorsinventory/decors" (without a number at the end) doesn't match.
         sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY, DecorContract.PATH_DECORS + "/#", DECOR_ID);
+
+        // The content URI of the form "content://com.example.android.decorsinventory/decors/#/image"
+        // will map to the integer code {@link #DECOR_IMAGE}. This URI is used to read the image
+        // of ONE single decor as a file.
+        sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY,
+                DecorContract.PATH_DECORS + "/#/" + DecorContract.PATH_IMAGE, DECOR_IMAGE);
+
+        // The content URI of the form "content://com.example.android.decorsinventory/thumbnails/*/#"
+        // will map to the integer code {@link #THUMBNAIL}. This URI is used to read a thumbnail
+        // of the given size ("#") for the image with the given hash ("*") as a file.
+        sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY, DecorContract.PATH_THUMBNAILS + "/*/#", THUMBNAIL);
+
+        // The content URI of the form "content://com.example.android.decorsinventory/decors/search"
+        // will map to the integer code {@link #SEARCH}. This URI is used to search decors
+        // by the text given in its query parameter.
+        sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY,
+                DecorContract.PATH_DECORS + "/" + DecorContract.PATH_SEARCH, SEARCH);
+
+        // The content URI of the form "content://com.example.android.decorsinventory/decors/export"
+        // will map to the integer code {@link #EXPORT}. This URI is used to read all decors
+        // as a CSV or JSON file.
+        sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY,
+                DecorContract.PATH_DECORS + "/" + DecorContract.PATH_EXPORT, EXPORT);
+
+        // The content URIs of the form "content://com.example.android.decorsinventory/aggregates"
+        // and ".../aggregates/total" will map to the integer codes {@link #AGGREGATES} and
+        // {@link #AGGREGATES_TOTAL}. These URIs are used to read the inventory aggregates.
+        sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY, DecorContract.PATH_AGGREGATES, AGGREGATES);
+        sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY, DecorContract.PATH_AGGREGATES + "/total",
+                AGGREGATES_TOTAL);
+
+        // The content URI of the form "content://com.example.android.decorsinventory/low_stock"
+        // will map to the integer code {@link #LOW_STOCK}. This URI is used to list the decors
+        // which should be reordered.
+        sUriMatcher.addURI(DecorContract.CONTENT_AUTHORITY, DecorContract.PATH_LOW_STOCK, LOW_STOCK);
     }
 
     /**
@@ -67,6 +292,63 @@ public class DecorProvider extends ContentProvider {
      */
     private DecorDbHelper mDbHelper;
 
+    /**
+     * Store which holds the decor images referenced from the decors table
+     */
+    private DecorImageStore mImageStore;
+
+    /**
+     * Store which holds the thumbnails of the decor images
+     */
+    private DecorThumbnailStore mThumbnailStore;
+
+    /**
+     * Single background thread which generates the thumbnails and scans the decors low on stock
+     */
+    private ExecutorService mBackgroundExecutor;
+
+    /**
+     * Cache of the single decors read through DECOR_ID queries
+     */
+    private DecorRowCache mRowCache;
+
+    /**
+     * Whether single decors are read through the row cache. Only turned off by the benchmark,
+     * which measures the reads from the database.
+     */
+    private volatile boolean mRowCacheEnabled = true;
+
+    /**
+     * Latencies, row and byte counts and errors of the provider calls
+     */
+    private final DecorProviderMetrics mMetrics = new DecorProviderMetrics();
+
+    /**
+     * Log of the queries which took longer than the threshold
+     */
+    private final DecorSlowQueryLog mSlowQueryLog =
+            new DecorSlowQueryLog(SLOW_QUERY_LOG_CAPACITY, SLOW_QUERY_THRESHOLD_MILLIS);
+
+    /**
+     * Changes to publish once the batch running on the current thread is committed.
+     * It's null when no batch is running on the thread, so changes are published immediately.
+     */
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<>();
+
+    /**
+     * Keeps images from being removed while they're referenced by rows not written yet.
+     * Writes saving an image hold the read lock from saving it until their rows are committed,
+     * removing unused images takes the write lock, so an image saved again (which only finds
+     * its file already there) can't be removed before the new reference is counted.
+     * Background migrations moving images to the store hold the read lock the same way.
+     */
+    private final ReentrantReadWriteLock mImageLock = new ReentrantReadWriteLock();
+
+    /**
+     * Whether a low stock scan is waiting to run on the background thread
+     */
+    private final AtomicBoolean mLowStockScanRequested = new AtomicBoolean();
+
     /**
      * Initialize the provider and the database helper object.
      */
@@ -78,39 +360,112 @@ public class DecorProvider extends ContentProvider {
         // To access our database, we instantiate our subclass of SQLiteOpenHelper
         // and pass the context.
         mDbHelper = new DecorDbHelper(getContext());
+        mImageStore = new DecorImageStore(getContext());
+        mThumbnailStore = new DecorThumbnailStore(getContext(), mImageStore);
+        mBackgroundExecutor = Executors.newSingleThreadExecutor();
+        mRowCache = new DecorRowCache(ROW_CACHE_SIZE_BYTES);
+
+        // Finish the long running migrations left to the background by the upgrade
+        runBackgroundMigrations();
+
+        // Catch up with images saved before the thumbnails were generated (or while
+        // the app was killed in the middle of generating them)
+        generateMissingThumbnails();
+
+        // Catch up with the decors changed while the provider didn't run
+        requestLowStockScan();
         return true;
     }
 
+    /**
+     * Release the database held by the provider. Only called from tests, the system never
+     * shuts down a running provider.
+     */
+    @Override
+    public void shutdown() {
+        mBackgroundExecutor.shutdown();
+        try {
+            mBackgroundExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mDbHelper.close();
+        super.shutdown();
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        DecorProviderMetrics.Entry metrics = mMetrics.get("query", match, targetName(match));
+        Cursor cursor;
+        try {
+            cursor = queryUri(match, uri, projection, selection, selectionArgs, sortOrder);
+            // Run the query now, so its latency is measured. The resolver would run it right away anyway.
+            cursor.getCount();
+        } catch (RuntimeException e) {
+            metrics.record(start, 0, true);
+            throw e;
+        }
+        metrics.record(start, cursor.getCount(), false);
+        return DecorProviderMetrics.meter(cursor, metrics);
+    }
+
+    /**
+     * Perform the query for the given URI matched to the given code.
+     */
+    private Cursor queryUri(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case DECORS:
                 // For the DECORS code, query the decors table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the decors table.
 
+                // If the URI asks for a page, return only the decors following the given one.
+                if (uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_AFTER_NAME) != null) {
+                    String afterName = uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_AFTER_NAME);
+                    String afterId = String.valueOf(Long.parseLong(
+                            uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_AFTER_ID)));
+
+                    // Written so that SQLite can seek in the page index to the first decor
+                    String pageSelection = DecorEntry.COLUMN_DECOR_NAME + ">=? AND (" +
+                            DecorEntry.COLUMN_DECOR_NAME + ">? OR " + DecorEntry._ID + ">?)";
+                    selection = TextUtils.isEmpty(selection) ?
+                            pageSelection : "(" + selection + ") AND " + pageSelection;
+                    selectionArgs = appendArgs(selectionArgs, afterName, afterName, afterId);
+                    sortOrder = DecorEntry.PAGE_SORT_ORDER;
+                } else if (uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_LIMIT) != null
+                        && TextUtils.isEmpty(sortOrder)) {
+                    // The first page must be in the same order as the pages following it,
+                    // or they would skip and repeat decors
+                    sortOrder = DecorEntry.PAGE_SORT_ORDER;
+                }
+
                 // Perform this raw SQL query "SELECT * FROM decors"
-                // to get a Cursor that contains all rows from the decors table.
-                cursor = database.query(
+                // to get a Cursor that contains all rows from the decors table
+                // (or the page of them, if a limit is given). The image BLOB is read as null,
+                // so the size of an image never slows down the rows.
+                String sql = SQLiteQueryBuilder.buildQueryString(false,
                         DecorEntry.TABLE_NAME,
-                        projection,
+                        withoutImage(projection, DECOR_COLUMNS),
                         selection,
-                        selectionArgs,
                         null,
                         null,
-                        sortOrder);
+                        sortOrder,
+                        uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_LIMIT));
+                cursor = rawQuery(database, sql, selectionArgs);
                 break;
             case DECOR_ID:
                 // For the DECOR_ID code, extract out the ID from the URI.
@@ -121,14 +476,55 @@ public class DecorProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = DecorEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                //
+                // Single decors are read through the row cache, so opening the same decor again
+                // doesn't go to the database.
+                cursor = queryCachedDecor(database, ContentUris.parseId(uri), projection);
 
-                // This will perform a query on the decors table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(DecorEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // The cursor of a single decor follows all changes of that decor.
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        DecorEntry.buildChangeUri(ContentUris.parseId(uri)));
+                return cursor;
+            case SEARCH:
+                // For the SEARCH code, look the text up in the full-text search index and
+                // return the matching decors, ranked. The selection further filters them.
+                cursor = searchDecors(database, uri, projection, selection, selectionArgs, sortOrder);
                 break;
+            case EXPORT:
+                // The export is a file, describe it to the apps it's shared with
+                return queryExportFile(uri, projection);
+            case AGGREGATES:
+            case AGGREGATES_TOTAL:
+                // The aggregates are kept up to date by triggers, so this reads a row
+                // per material, no matter how many decors there are.
+                cursor = rawQuery(database, SQLiteQueryBuilder.buildQueryString(false,
+                        match == AGGREGATES ? DecorAggregateEntry.TABLE_NAME : AGGREGATES_TOTAL_TABLE,
+                        projection, selection, null, null, sortOrder, null), selectionArgs);
+
+                // The aggregates change with any decor, so the cursor follows all changes.
+                cursor.setNotificationUri(getContext().getContentResolver(), DecorContract.BASE_CONTENT_URI);
+                return cursor;
+            case LOW_STOCK:
+                // The low stock table only holds the decors found by the last scan, so this
+                // reads as many decors as need to be reordered. Decors changed since are
+                // scanned first, so the list is never behind the writes.
+                if (hasDecorsToScan(database)) {
+                    scanLowStock(false);
+                }
+                String supplier = uri.getQueryParameter(DecorLowStockEntry.QUERY_PARAMETER_SUPPLIER);
+                if (supplier != null) {
+                    String supplierSelection = DecorEntry.COLUMN_DECOR_SUPPLIER_NAME + "=?";
+                    selection = TextUtils.isEmpty(selection) ?
+                            supplierSelection : "(" + selection + ") AND " + supplierSelection;
+                    selectionArgs = appendArgs(selectionArgs, supplier);
+                }
+                cursor = rawQuery(database, SQLiteQueryBuilder.buildQueryString(false, LOW_STOCK_TABLES,
+                        withoutImage(projection, LOW_STOCK_COLUMNS), selection, null, null,
+                        TextUtils.isEmpty(sortOrder) ? LOW_STOCK_SORT_ORDER : sortOrder, null), selectionArgs);
+
+                // Names and suppliers of the listed decors may change without a scan
+                cursor.setNotificationUri(getContext().getContentResolver(), DecorContract.BASE_CONTENT_URI);
+                return cursor;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -143,71 +539,233 @@ public class DecorProvider extends ContentProvider {
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Turns the row cache of the single decors on or off.
      */
-    @Override
-    public Uri insert(@NonNull Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case DECORS:
-                return insertDecor(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    void setRowCacheEnabled(boolean enabled) {
+        mRowCacheEnabled = enabled;
+    }
+
+    /**
+     * Returns a cursor of the decor with the given ID from the row cache. On a miss, the decor
+     * is read from the database (all of its columns, but the image BLOB) and cached.
+     */
+    private Cursor queryCachedDecor(SQLiteDatabase database, long id, String[] projection) {
+        String selection = DecorEntry._ID + "=?";
+        String[] selectionArgs = new String[]{String.valueOf(id)};
+        if (!mRowCacheEnabled) {
+            return rawQuery(database, SQLiteQueryBuilder.buildQueryString(false, DecorEntry.TABLE_NAME,
+                    withoutImage(projection, DECOR_COLUMNS), selection, null, null, null, null), selectionArgs);
+        }
+
+        Cursor cursor = mRowCache.get(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long generation = mRowCache.getGeneration();
+
+        // This will perform a query on the decors table where the _id equals 3 to return a
+        // Cursor containing that row of the table.
+        Cursor row = rawQuery(database, SQLiteQueryBuilder.buildQueryString(false, DecorEntry.TABLE_NAME,
+                DECOR_COLUMNS, selection, null, null, null, null), selectionArgs);
+        try {
+            if (!row.moveToFirst()) {
+                // There is no such decor, return an empty cursor with the requested columns
+                return rawQuery(database, SQLiteQueryBuilder.buildQueryString(false, DecorEntry.TABLE_NAME,
+                        withoutImage(projection, DECOR_COLUMNS), selection, null, null, null, null), selectionArgs);
+            }
+            return mRowCache.put(id, row, generation, projection);
+        } finally {
+            row.close();
         }
     }
 
     /**
-     * Insert a decor into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Run the given SQL query of a caller, and log it with its plan if it's slow.
      */
-    private Uri insertDecor(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString(DecorEntry.COLUMN_DECOR_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Decor requires a name");
+    private Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        long start = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, selectionArgs);
+        try {
+            // SQLite only runs the query when the cursor is first filled
+            cursor.getCount();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
         }
+        mSlowQueryLog.onQuery(database, sql, selectionArgs, start);
+        return cursor;
+    }
 
-        // No need to check the description, any value is valid (including null).
+    /**
+     * Returns the name of the export file with the given URI, and its unknown size,
+     * in the requested {@link OpenableColumns}.
+     */
+    private static Cursor queryExportFile(Uri uri, String[] projection) {
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                values[i] = DecorEntry.TABLE_NAME + "." + getExportFormat(uri).name().toLowerCase(Locale.US);
+            } else if (!OpenableColumns.SIZE.equals(projection[i])) {
+                throw new IllegalArgumentException("Unknown column " + projection[i] + " of " + uri);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /**
+     * Returns the format of the export with the given URI.
+     */
+    private static DecorImporter.Format getExportFormat(Uri uri) {
+        String format = uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || DecorEntry.EXPORT_FORMAT_CSV.equals(format)) {
+            return DecorImporter.Format.CSV;
+        }
+        if (DecorEntry.EXPORT_FORMAT_JSON.equals(format)) {
+            return DecorImporter.Format.JSON;
+        }
+        throw new IllegalArgumentException("Unknown export format " + format);
+    }
+
+    /**
+     * Returns the given selection arguments followed by the extra ones.
+     */
+    private static String[] appendArgs(String[] selectionArgs, String... extraArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return extraArgs;
+        }
+        String[] args = Arrays.copyOf(selectionArgs, selectionArgs.length + extraArgs.length);
+        System.arraycopy(extraArgs, 0, args, selectionArgs.length, extraArgs.length);
+        return args;
+    }
 
-        // Check that the material is not null
-        Integer material = values.getAsInteger(DecorEntry.COLUMN_DECOR_MATERIAL);
-        if (material == null || !DecorEntry.isValidMaterial(material)) {
-            throw new IllegalArgumentException("Decor requires valid material");
+    /**
+     * Returns the given projection with the image column read as null, or the given default
+     * columns if there is no projection.
+     */
+    private static String[] withoutImage(String[] projection, String[] defaultColumns) {
+        if (projection == null) {
+            return defaultColumns;
+        }
+        String[] columns = projection.clone();
+        for (int i = 0; i < columns.length; i++) {
+            if (DecorEntry.COLUMN_DECOR_IMAGE.equals(columns[i])) {
+                columns[i] = NULL_IMAGE_COLUMN;
+            }
         }
+        return columns;
+    }
 
-        // If the height is provided, check that it's greater than or equal to 0 cm
-        Integer height = values.getAsInteger(DecorEntry.COLUMN_DECOR_HEIGHT);
-        if (height != null && height < 0) {
-            throw new IllegalArgumentException("Height cannot be negative number");
+    /**
+     * Search decors for the text given in the query parameter of the URI, using the full-text
+     * search index. Every word is matched as a prefix, and all words must match.
+     */
+    private Cursor searchDecors(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        String text = uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_SEARCH);
+        String[] words = TextUtils.isEmpty(text) ? new String[0] : text.split("[^\\p{L}\\p{N}]+");
+
+        // Build the MATCH expressions for the name only and for all indexed columns.
+        // Only letters and digits are kept, so the text cannot inject any FTS syntax.
+        StringBuilder nameMatch = new StringBuilder();
+        StringBuilder anyMatch = new StringBuilder();
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            nameMatch.append(DecorEntry.COLUMN_DECOR_NAME).append(':').append(word).append("* ");
+            anyMatch.append(word).append("* ");
         }
 
-        // Check that the price is not null and not negative
-        Double price = values.getAsDouble(DecorEntry.COLUMN_DECOR_PRICE);
-        if (price == null || price < 0) {
-            throw new IllegalArgumentException("Price must be positive value or 0");
+        if (anyMatch.length() == 0) {
+            // Nothing to search for, return an empty cursor with the requested columns
+            return rawQuery(database, SQLiteQueryBuilder.buildQueryString(false, DecorEntry.TABLE_NAME,
+                    withoutImage(projection, DECOR_COLUMNS), "0", null, null, null, null), null);
         }
 
-        // Check that the quantity is not null and not negative
-        Integer quantity = values.getAsInteger(DecorEntry.COLUMN_DECOR_QUANTITY);
-        if (quantity == null || quantity < 0) {
-            throw new IllegalArgumentException("Quantity must be positive number or 0");
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(DecorEntry.TABLE_NAME + " JOIN (SELECT docid, MIN(" + SEARCH_RANK + ") AS " +
+                SEARCH_RANK + " FROM (" +
+                "SELECT docid, 0 AS " + SEARCH_RANK + " FROM " + DecorDbHelper.SEARCH_TABLE_NAME +
+                " WHERE " + DecorDbHelper.SEARCH_TABLE_NAME + " MATCH ?" +
+                " UNION ALL SELECT docid, 1 FROM " + DecorDbHelper.SEARCH_TABLE_NAME +
+                " WHERE " + DecorDbHelper.SEARCH_TABLE_NAME + " MATCH ?" +
+                ") GROUP BY docid) AS matches ON " + DecorEntry.TABLE_NAME + "." + DecorEntry._ID +
+                " = matches.docid");
+
+        if (TextUtils.isEmpty(sortOrder)) {
+            sortOrder = SEARCH_SORT_ORDER;
         }
+        String sql = builder.buildQuery(withoutImage(projection, DECOR_COLUMNS), selection, null, null, sortOrder,
+                uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_LIMIT));
 
-        // No need to check the supplier's name, email address or decor's image,
-        // any value is valid (including null).
+        // The MATCH arguments come first, as they appear first in the SQL
+        int selectionArgsCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[2 + selectionArgsCount];
+        args[0] = nameMatch.toString().trim();
+        args[1] = anyMatch.toString().trim();
+        if (selectionArgsCount != 0) {
+            System.arraycopy(selectionArgs, 0, args, 2, selectionArgsCount);
+        }
+        return rawQuery(database, sql, args);
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        DecorProviderMetrics.Entry metrics = mMetrics.get("insert", match, targetName(match));
+        boolean failed = true;
+        try {
+            switch (match) {
+                case DECORS:
+                    Uri newUri = insertDecor(uri, contentValues);
+                    failed = ContentUris.parseId(newUri) == -1;
+                    return newUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            metrics.record(start, 1, failed);
+        }
+    }
+
+    /**
+     * Insert a decor into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertDecor(Uri uri, ContentValues values) {
+        // Check that all required attributes are present and valid
+        DecorEntry.validateNewDecor(values);
 
-        // Insert a new decor into the decors database table with the given ContentValues
         // Gets the data repository in write mode
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        // Insert a new row for decor in the database, returning the ID of that new row.
-        // The first argument for db.insert() is the decors table name.
-        // The second argument provides the name of a column in which the framework
-        // can insert NULL in the event that the ContentValues is empty (if
-        // this is set to "null", then the framework will not insert a row when
-        // there are no values).
-        // The third argument is the ContentValues object containing the info for new decor
-        long id = db.insert(DecorEntry.TABLE_NAME, null, values);
+        long id;
+        mImageLock.readLock().lock();
+        try {
+            // Keep the image in the image store, the row only references it
+            values = storeImage(values);
+
+            // Insert a new row for decor in the database, returning the ID of that new row.
+            // The first argument for db.insert() is the decors table name.
+            // The second argument provides the name of a column in which the framework
+            // can insert NULL in the event that the ContentValues is empty (if
+            // this is set to "null", then the framework will not insert a row when
+            // there are no values).
+            // The third argument is the ContentValues object containing the info for new decor
+            id = db.insert(DecorEntry.TABLE_NAME, null, values);
+        } finally {
+            mImageLock.readLock().unlock();
+        }
 
         // Show a toast message depending on whether or not the insertion was successful
         if (id == -1) {
@@ -215,30 +773,185 @@ public class DecorProvider extends ContentProvider {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
         }
 
+        if (id != -1) {
+            generateThumbnails(values);
+        }
+
         // Notify all listeners that the data has changed for the decor content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
+        if (id != -1) {
+            notifyChange(DecorEntry.buildChangeUri(id, DecorEntry.CHANGE_INSERT));
+        }
 
         // Once we know the ID of the new row in the table,
         // return the new URI with the ID appended to the end of it
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Insert a set of decors into the provider. All rows are validated up front and written
+     * in a single transaction, so either all of them are inserted or none.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        DecorProviderMetrics.Entry metrics = mMetrics.get("bulk_insert", match, targetName(match));
+        int rowsInserted = 0;
+        boolean failed = true;
+        try {
+            switch (match) {
+                case DECORS:
+                    rowsInserted = bulkInsertDecors(uri, values);
+                    failed = false;
+                    return rowsInserted;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            metrics.record(start, rowsInserted, failed);
+        }
+    }
+
+    /**
+     * Insert all given decors into the database. Every row goes through a compiled INSERT
+     * statement which is reused for all rows sharing the same set of columns.
+     * Listeners are notified only once, after the transaction has been committed.
+     * Return the number of inserted rows.
+     */
+    private int bulkInsertDecors(Uri uri, ContentValues[] values) {
+        // Validate all rows first, so an invalid row doesn't leave half of the data written
+        for (ContentValues row : values) {
+            DecorEntry.validateNewDecor(row);
+        }
+
+        if (values.length == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Compiled statements keyed by the sorted list of columns they insert
+        Map<String, SQLiteStatement> statements = new HashMap<>();
+        int rowsInserted = 0;
+
+        mImageLock.readLock().lock();
+        db.beginTransaction();
+        try {
+            // Keep the images in the image store, the rows only reference them
+            ContentValues[] rows = new ContentValues[values.length];
+            for (int i = 0; i < values.length; i++) {
+                rows[i] = storeImage(values[i]);
+            }
+
+            for (ContentValues row : rows) {
+                // Sort the columns, so that rows with the same keys share one statement
+                String[] columns = row.keySet().toArray(new String[row.size()]);
+                Arrays.sort(columns);
+                String key = TextUtils.join(COMMA_SEP, columns);
+
+                SQLiteStatement statement = statements.get(key);
+                if (statement == null) {
+                    statement = db.compileStatement(buildInsertSql(columns));
+                    statements.put(key, statement);
+                }
+
+                statement.clearBindings();
+                for (int i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, row.get(columns[i]));
+                }
+
+                if (statement.executeInsert() == -1) {
+                    Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                } else {
+                    rowsInserted++;
+                    generateThumbnails(row);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mImageLock.readLock().unlock();
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+
+        // Notify all listeners once that the data has changed for the decor content URI
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+
+        // Large imports would otherwise leave a big log behind for the readers to go through.
+        // Inside a batch the transaction is still open, the batch checkpoints on its own.
+        if (rowsInserted >= CHECKPOINT_ROW_THRESHOLD && !db.inTransaction()) {
+            mDbHelper.checkpoint();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Build the SQL of an INSERT statement into the decors table for the given columns,
+     * with one "?" placeholder for every column.
+     */
+    private static String buildInsertSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(DecorEntry.TABLE_NAME)
+                .append(" (")
+                .append(TextUtils.join(COMMA_SEP, columns))
+                .append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")").toString();
+    }
+
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
     @Override
     public int update(@NonNull Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        DecorProviderMetrics.Entry metrics = mMetrics.get("update", match, targetName(match));
+        int rowsUpdated = 0;
+        boolean failed = true;
+        try {
+            rowsUpdated = updateUri(match, uri, contentValues, selection, selectionArgs);
+            failed = false;
+            return rowsUpdated;
+        } finally {
+            metrics.record(start, rowsUpdated, failed);
+        }
+    }
+
+    /**
+     * Update the decors of the given URI matched to the given code.
+     */
+    private int updateUri(int match, Uri uri, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
         switch (match) {
             case DECORS:
-                return updateDecor(uri, contentValues, selection, selectionArgs);
+                try {
+                    return updateDecor(uri, contentValues, selection, selectionArgs);
+                } finally {
+                    invalidateCachedDecors();
+                }
             case DECOR_ID:
                 // For the DECOR_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
+                // Only the change of this decor is notified, the lists of decors are not reloaded.
+                long id = ContentUris.parseId(uri);
                 selection = DecorEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateDecor(uri, contentValues, selection, selectionArgs);
+                selectionArgs = new String[]{String.valueOf(id)};
+                try {
+                    return updateDecor(DecorEntry.buildChangeUri(id, DecorEntry.CHANGE_UPDATE),
+                            contentValues, selection, selectionArgs);
+                } finally {
+                    invalidateCachedDecor(id);
+                }
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -247,7 +960,8 @@ public class DecorProvider extends ContentProvider {
     /**
      * Update decors in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more decors).
-     * Return the number of rows that were successfully updated.
+     * Return the number of rows that were successfully updated. The given URI is notified
+     * if any were.
      */
     private int updateDecor(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
 
@@ -285,7 +999,7 @@ public class DecorProvider extends ContentProvider {
         // check that the price value is valid.
         if (values.containsKey(DecorEntry.COLUMN_DECOR_PRICE)) {
             Double price = values.getAsDouble(DecorEntry.COLUMN_DECOR_PRICE);
-            if (price == null || price < 0) {
+            if (!DecorEntry.isValidPrice(price)) {
                 throw new IllegalArgumentException("Price must be positive value or 0");
             }
         }
@@ -299,6 +1013,8 @@ public class DecorProvider extends ContentProvider {
             }
         }
 
+        // Check the reorder threshold, if present, and that the stock margin isn't written
+        DecorEntry.validateStockValues(values);
 
         // No need to check the supplier's name, email address or decor's image,
         // any value is valid (including null).
@@ -312,13 +1028,37 @@ public class DecorProvider extends ContentProvider {
         // Gets the data repository in write mode
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = db.update(DecorEntry.TABLE_NAME, values, selection, selectionArgs);
+        // If the image is replaced, remember the old ones, so they can be removed from the store
+        Set<String> oldImages = null;
+        int rowsUpdated;
+        mImageLock.readLock().lock();
+        try {
+            if (values.containsKey(DecorEntry.COLUMN_DECOR_IMAGE)) {
+                oldImages = queryImageHashes(db, selection, selectionArgs);
+                values = storeImage(values);
+            }
+
+            // Perform the update on the database and get the number of rows affected
+            rowsUpdated = db.update(DecorEntry.TABLE_NAME, values, selection, selectionArgs);
+        } finally {
+            mImageLock.readLock().unlock();
+        }
+
+        if (oldImages != null) {
+            removeUnusedImages(oldImages);
+        }
+        if (rowsUpdated != 0) {
+            generateThumbnails(values);
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // given URI has changed. Without the IDs of the updated decors, the observers
+        // of single decors are notified as well.
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            if (uri.equals(DecorEntry.CONTENT_URI)) {
+                notifyChange(DecorEntry.CHANGES_URI);
+            }
         }
 
         // Returns the number of database rows affected by the update statement
@@ -330,45 +1070,754 @@ public class DecorProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        DecorProviderMetrics.Entry metrics = mMetrics.get("delete", match, targetName(match));
+        int rowsDeleted = 0;
+        boolean failed = true;
+        try {
+            rowsDeleted = deleteUri(match, uri, selection, selectionArgs);
+            failed = false;
+            return rowsDeleted;
+        } finally {
+            metrics.record(start, rowsDeleted, failed);
+        }
+    }
+
+    /**
+     * Delete the decors of the given URI matched to the given code.
+     */
+    private int deleteUri(int match, Uri uri, String selection, String[] selectionArgs) {
         // Gets the data repository in write mode
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
-        final int match = sUriMatcher.match(uri);
+        // Images of the deleted decors, to be removed from the store
+        Set<String> oldImages;
+
+        // ID of the deleted decor, if a single one is deleted
+        long deletedId = -1;
+
         switch (match) {
             case DECORS:
                 // Delete all rows that match the selection and selection args
                 // Returns the number of database rows affected by the delete statement
                 // Delete all rows that match the selection and selection args
                 // For case DECORS:
+                oldImages = queryImageHashes(db, selection, selectionArgs);
                 rowsDeleted = db.delete(DecorEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case DECOR_ID:
                 // For the DECOR_ID code, extract out the ID from the URI,
                 // so we know which row to delete. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
+                deletedId = ContentUris.parseId(uri);
                 selection = DecorEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                selectionArgs = new String[]{String.valueOf(deletedId)};
                 // Returns the number of database rows affected by the delete statement
                 // For case DECOR_ID:
                 // Delete a single row given by the ID in the URI
+                oldImages = queryImageHashes(db, selection, selectionArgs);
                 rowsDeleted = db.delete(DecorEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
+        if (deletedId != -1) {
+            invalidateCachedDecor(deletedId);
+        } else {
+            invalidateCachedDecors();
+        }
+
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            removeUnusedImages(oldImages);
+            notifyChange(DecorEntry.CONTENT_URI);
+            notifyChange(deletedId != -1 ?
+                    DecorEntry.buildChangeUri(deletedId, DecorEntry.CHANGE_DELETE) : DecorEntry.CHANGES_URI);
         }
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Apply all operations of the batch inside a single transaction, so the batch is atomic.
+     * Changes are notified once per content URI, only after the transaction is committed.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = System.nanoTime();
+        DecorProviderMetrics.Entry metrics = mMetrics.get("apply_batch", 0, "operations");
+        boolean failed = true;
+        try {
+            ContentProviderResult[] results = applyOperations(operations);
+            failed = false;
+            return results;
+        } finally {
+            metrics.record(start, operations.size(), failed);
+        }
+    }
+
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // A batch applied from inside another batch simply joins the outer one
+        if (mPendingChanges.get() != null) {
+            return super.applyBatch(operations);
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        PendingChanges pendingChanges = new PendingChanges();
+        ContentProviderResult[] results;
+
+        mPendingChanges.set(pendingChanges);
+        mImageLock.readLock().lock();
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mImageLock.readLock().unlock();
+            mPendingChanges.remove();
+
+            // Rows cached while the batch was running may have been read from the batch's
+            // own transaction, or before it was committed.
+            if (pendingChanges.invalidateAllDecors) {
+                mRowCache.invalidateAll();
+            } else {
+                for (long id : pendingChanges.invalidatedDecors) {
+                    mRowCache.invalidate(id);
+                }
+            }
+        }
+
+        // The batch has been committed, the replaced images are not needed anymore
+        removeUnusedImages(pendingChanges.unusedImages);
+
+        // Let the listeners know about all changed URIs
+        for (Uri uri : pendingChanges.notifications) {
+            notifyChange(uri);
+        }
+
+        if (operations.size() >= CHECKPOINT_ROW_THRESHOLD) {
+            mDbHelper.checkpoint();
+        }
+        return results;
+    }
+
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        int methodIndex = -1;
+        for (int i = 0; i < CALL_METHODS.length && methodIndex == -1; i++) {
+            if (CALL_METHODS[i].equals(method)) {
+                methodIndex = i;
+            }
+        }
+        // Only the known methods are counted by name, so callers can't grow the metrics without bounds
+        DecorProviderMetrics.Entry metrics = mMetrics.get("call", methodIndex,
+                methodIndex == -1 ? "unknown" : method);
+        boolean failed = true;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(start, 0, failed);
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (DecorEntry.METHOD_SELL.equals(method)) {
+            return sellDecor(extras);
+        }
+        if (DecorEntry.METHOD_ROW_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(DecorEntry.EXTRA_HIT_COUNT, mRowCache.hitCount());
+            stats.putInt(DecorEntry.EXTRA_MISS_COUNT, mRowCache.missCount());
+            stats.putInt(DecorEntry.EXTRA_EVICTION_COUNT, mRowCache.evictionCount());
+            stats.putInt(DecorEntry.EXTRA_SIZE_BYTES, mRowCache.size());
+            stats.putInt(DecorEntry.EXTRA_MAX_SIZE_BYTES, mRowCache.maxSize());
+            return stats;
+        }
+        if (DecorEntry.METHOD_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        }
+        if (DecorEntry.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            if (extras == null || !extras.containsKey(DecorEntry.EXTRA_THRESHOLD_MILLIS)) {
+                throw new IllegalArgumentException("Slow query threshold is missing");
+            }
+            mSlowQueryLog.setThresholdMillis(extras.getLong(DecorEntry.EXTRA_THRESHOLD_MILLIS));
+            return null;
+        }
+        if (DecorLowStockEntry.METHOD_SCAN_LOW_STOCK.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(DecorLowStockEntry.EXTRA_SCANNED_COUNT,
+                    scanLowStock(extras != null && extras.getBoolean(DecorLowStockEntry.EXTRA_FULL)));
+            return result;
+        }
+        if (DecorEntry.METHOD_READ_IMAGE_CHUNK.equals(method)) {
+            return readImageChunk(extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Read the chunk of the image of a decor given in the extras, from the image store or,
+     * if the image is not moved there yet, from its BLOB.
+     */
+    private Bundle readImageChunk(Bundle extras) {
+        if (extras == null || !extras.containsKey(DecorEntry.EXTRA_DECOR_ID)) {
+            throw new IllegalArgumentException("Decor ID is missing");
+        }
+        long id = extras.getLong(DecorEntry.EXTRA_DECOR_ID);
+        long offset = extras.getLong(DecorEntry.EXTRA_OFFSET);
+        int length = extras.getInt(DecorEntry.EXTRA_LENGTH, DecorEntry.MAX_IMAGE_CHUNK_SIZE);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must be positive number");
+        }
+        if (length <= 0 || length > DecorEntry.MAX_IMAGE_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Length must be between 1 and " + DecorEntry.MAX_IMAGE_CHUNK_SIZE);
+        }
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String hash = null;
+        long totalLength = -1;
+        byte[] chunk = new byte[0];
+        // Only the length of a BLOB is read here, its bytes are read as a chunk below
+        Cursor cursor = db.rawQuery("SELECT " + DecorEntry.COLUMN_DECOR_IMAGE_HASH + ", length(" +
+                DecorEntry.COLUMN_DECOR_IMAGE + ") FROM " + DecorEntry.TABLE_NAME + " WHERE " + DecorEntry._ID + "=?",
+                new String[]{String.valueOf(id)});
+        try {
+            if (cursor.moveToFirst()) {
+                hash = cursor.getString(0);
+                totalLength = cursor.isNull(1) ? -1 : cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (hash != null) {
+            try {
+                RandomAccessFile file = new RandomAccessFile(mImageStore.getFile(hash), "r");
+                try {
+                    totalLength = file.length();
+                    chunk = new byte[(int) Math.max(0, Math.min(length, totalLength - offset))];
+                    file.seek(offset);
+                    file.readFully(chunk);
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read image of decor " + id, e);
+            }
+        } else if (totalLength >= 0) {
+            chunk = DecorBlobInputStream.readChunk(db, id, offset, length);
+            if (chunk == null) {
+                // Moved to the image store meanwhile, the caller sees the hash change on the next chunk
+                chunk = new byte[0];
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putByteArray(DecorEntry.EXTRA_CHUNK, chunk);
+        result.putLong(DecorEntry.EXTRA_TOTAL_LENGTH, totalLength);
+        result.putString(DecorEntry.EXTRA_IMAGE_HASH, hash);
+        return result;
+    }
+
+    /**
+     * Decrease the quantity of the decor given in the extras by the sold amount, if there are
+     * enough in stock. The check and the decrement are done by SQLite in a single statement,
+     * so concurrent sales and edits never overwrite each other.
+     */
+    private Bundle sellDecor(Bundle extras) {
+        if (extras == null || !extras.containsKey(DecorEntry.EXTRA_DECOR_ID)) {
+            throw new IllegalArgumentException("Sale requires a decor ID");
+        }
+        long id = extras.getLong(DecorEntry.EXTRA_DECOR_ID);
+        int amount = extras.getInt(DecorEntry.EXTRA_AMOUNT, 1);
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Sold amount must be positive number");
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean sold;
+        long quantity;
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement("UPDATE " + DecorEntry.TABLE_NAME +
+                    " SET " + DecorEntry.COLUMN_DECOR_QUANTITY + "=" + DecorEntry.COLUMN_DECOR_QUANTITY + "-?" +
+                    " WHERE " + DecorEntry._ID + "=? AND " + DecorEntry.COLUMN_DECOR_QUANTITY + ">=?");
+            try {
+                statement.bindLong(1, amount);
+                statement.bindLong(2, id);
+                statement.bindLong(3, amount);
+                sold = statement.executeUpdateDelete() != 0;
+            } finally {
+                statement.close();
+            }
+
+            // Read the quantity in the same transaction, so it's the one left right after this sale
+            try {
+                quantity = DatabaseUtils.longForQuery(db, "SELECT " + DecorEntry.COLUMN_DECOR_QUANTITY +
+                                " FROM " + DecorEntry.TABLE_NAME + " WHERE " + DecorEntry._ID + "=?",
+                        new String[]{String.valueOf(id)});
+            } catch (SQLiteDoneException e) {
+                quantity = -1;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateCachedDecor(id);
+
+        if (sold) {
+            notifyChange(DecorEntry.buildChangeUri(id, DecorEntry.CHANGE_UPDATE));
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(DecorEntry.EXTRA_SOLD, sold);
+        result.putInt(DecorEntry.EXTRA_QUANTITY, (int) quantity);
+        return result;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. When a batch is running
+     * on the current thread, the notification is queued until the batch is committed
+     * (and dropped if it's rolled back).
+     */
+    private void notifyChange(Uri uri) {
+        PendingChanges pendingChanges = mPendingChanges.get();
+        if (pendingChanges != null) {
+            pendingChanges.notifications.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+            // Every committed write of decors is notified, the scan finds the ones whose stock changed
+            if (!DecorLowStockEntry.CONTENT_URI.equals(uri)) {
+                requestLowStockScan();
+            }
+        }
+    }
+
+    /**
+     * Remove the decor with the given ID from the row cache. When a batch is running on the
+     * current thread, the decor is removed again once the batch is over.
+     */
+    private void invalidateCachedDecor(long id) {
+        mRowCache.invalidate(id);
+        PendingChanges pendingChanges = mPendingChanges.get();
+        if (pendingChanges != null) {
+            pendingChanges.invalidatedDecors.add(id);
+        }
+    }
+
+    /**
+     * Remove all decors from the row cache, like {@link #invalidateCachedDecor(long)}.
+     */
+    private void invalidateCachedDecors() {
+        mRowCache.invalidateAll();
+        PendingChanges pendingChanges = mPendingChanges.get();
+        if (pendingChanges != null) {
+            pendingChanges.invalidateAllDecors = true;
+        }
+    }
+
+    /**
+     * If the given values contain an image, save it in the image store and return a copy
+     * of the values which references the image by its hash instead. The given values are
+     * never modified.
+     */
+    private ContentValues storeImage(ContentValues values) {
+        if (!values.containsKey(DecorEntry.COLUMN_DECOR_IMAGE)) {
+            return values;
+        }
+
+        ContentValues storedValues = new ContentValues(values);
+        byte[] image = storedValues.getAsByteArray(DecorEntry.COLUMN_DECOR_IMAGE);
+        // Clear a legacy BLOB not moved to the store yet, or its move would bring the old image back
+        storedValues.putNull(DecorEntry.COLUMN_DECOR_IMAGE);
+        if (image == null) {
+            storedValues.putNull(DecorEntry.COLUMN_DECOR_IMAGE_HASH);
+            return storedValues;
+        }
+
+        String hash;
+        try {
+            hash = mImageStore.put(image);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot save decor image", e);
+        }
+        storedValues.put(DecorEntry.COLUMN_DECOR_IMAGE_HASH, hash);
+
+        // The same image may have been saved before, then its thumbnails are already there
+        if (mThumbnailStore.exists(hash)) {
+            storedValues.put(DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH, hash);
+        } else {
+            storedValues.putNull(DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH);
+        }
+        return storedValues;
+    }
+
+    /**
+     * Returns hashes of the images of all decors matching the given selection.
+     */
+    private static Set<String> queryImageHashes(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        String imageSelection = DecorEntry.COLUMN_DECOR_IMAGE_HASH + " IS NOT NULL";
+        if (!TextUtils.isEmpty(selection)) {
+            imageSelection += " AND (" + selection + ")";
+        }
+
+        Set<String> hashes = new HashSet<>();
+        Cursor cursor = db.query(true, DecorEntry.TABLE_NAME,
+                new String[]{DecorEntry.COLUMN_DECOR_IMAGE_HASH},
+                imageSelection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                hashes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return hashes;
+    }
+
+    /**
+     * Remove the given images from the image store, unless some decor still references them.
+     * When a batch is running, the images are removed only after it's committed,
+     * so a rolled back batch doesn't lose them.
+     */
+    private void removeUnusedImages(Set<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+
+        PendingChanges pendingChanges = mPendingChanges.get();
+        if (pendingChanges != null) {
+            pendingChanges.unusedImages.addAll(hashes);
+            return;
+        }
+
+        // No image can be saved again for a row while the references are counted and removed
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        mImageLock.writeLock().lock();
+        try {
+            for (String hash : hashes) {
+                long references = DatabaseUtils.queryNumEntries(db, DecorEntry.TABLE_NAME,
+                        DecorEntry.COLUMN_DECOR_IMAGE_HASH + "=?", new String[]{hash});
+                if (references == 0) {
+                    mImageStore.delete(hash);
+                    mThumbnailStore.delete(hash);
+                }
+            }
+        } finally {
+            mImageLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * If the given (already written) values reference an image without thumbnails,
+     * generate them in the background.
+     */
+    private void generateThumbnails(ContentValues values) {
+        final String hash = values.getAsString(DecorEntry.COLUMN_DECOR_IMAGE_HASH);
+        if (hash == null || values.getAsString(DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH) != null) {
+            return;
+        }
+
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                generateThumbnailsNow(hash);
+            }
+        });
+    }
+
+    /**
+     * Run the pending background migrations of the database on the background thread.
+     */
+    private void runBackgroundMigrations() {
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean migrated = false;
+                while (runBackgroundMigrationChunk()) {
+                    migrated = true;
+                }
+                if (migrated) {
+                    invalidateCachedDecors();
+                    notifyChange(DecorEntry.CONTENT_URI);
+                    notifyChange(DecorEntry.CHANGES_URI);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the next chunk of the pending background migrations. Moving images to the store
+     * saves them like a write does, so the chunk holds the read lock of the images until
+     * its rows are committed.
+     *
+     * @return whether any background migration is still pending
+     */
+    private boolean runBackgroundMigrationChunk() {
+        mImageLock.readLock().lock();
+        try {
+            return mDbHelper.runBackgroundMigrationChunk();
+        } finally {
+            mImageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scan the changed decors for low stock on the background thread, unless a scan is already
+     * waiting to run. Called after every committed write, so the scan follows the changes
+     * without polling.
+     */
+    private void requestLowStockScan() {
+        if (!mLowStockScanRequested.compareAndSet(false, true)) {
+            return;
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Changes committed from now on request another scan
+                mLowStockScanRequested.set(false);
+                try {
+                    scanLowStock(false);
+                } catch (RuntimeException e) {
+                    // The changes stay marked for the next scan
+                    Log.e(LOG_TAG, "Failed to scan decors low on stock", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns whether any decor changed since the last low stock scan.
+     */
+    private boolean hasDecorsToScan(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT EXISTS (SELECT 1 FROM " +
+                DecorDbHelper.LOW_STOCK_DIRTY_TABLE_NAME + ")", null) != 0;
+    }
+
+    /**
+     * Update the list of decors low on stock, chunk by chunk, from the decors changed since
+     * the last scan, or from all decors.
+     *
+     * @return number of decors scanned
+     */
+    private int scanLowStock(boolean full) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int scanned = 0;
+        if (full) {
+            // The rebuild reads the stock margins of all decors, the upgrade leaves them to the background
+            while (runBackgroundMigrationChunk()) {
+                // Finish the pending migrations first
+            }
+            db.beginTransaction();
+            try {
+                scanned = DecorLowStockScanner.rebuild(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } else {
+            int count;
+            while ((count = DecorLowStockScanner.scanChunk(db)) != 0) {
+                scanned += count;
+            }
+        }
+        if (scanned != 0 || full) {
+            notifyChange(DecorLowStockEntry.CONTENT_URI);
+        }
+        return scanned;
+    }
+
+    /**
+     * Generate thumbnails in the background for all images which don't have them yet.
+     */
+    private void generateMissingThumbnails() {
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = mDbHelper.getReadableDatabase();
+                Cursor cursor = db.query(true, DecorEntry.TABLE_NAME,
+                        new String[]{DecorEntry.COLUMN_DECOR_IMAGE_HASH},
+                        DecorEntry.COLUMN_DECOR_IMAGE_HASH + " IS NOT NULL AND " +
+                                DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH + " IS NULL",
+                        null, null, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        generateThumbnailsNow(cursor.getString(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Generate thumbnails of the image with the given hash and mark them as ready for all
+     * decors using that image. Runs on the background thread only.
+     */
+    private void generateThumbnailsNow(String hash) {
+        try {
+            mThumbnailStore.generate(hash);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to generate thumbnails of image " + hash, e);
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(DecorEntry.COLUMN_DECOR_THUMBNAIL_HASH, hash);
+        String selection = DecorEntry.COLUMN_DECOR_IMAGE_HASH + "=?";
+        String[] selectionArgs = new String[]{hash};
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Notify the change of each decor using the image, so the lists patch just these rows
+        List<Long> ids = new ArrayList<>();
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(DecorEntry.TABLE_NAME, new String[]{DecorEntry._ID},
+                    selection, selectionArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            db.update(DecorEntry.TABLE_NAME, values, selection, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        for (long id : ids) {
+            invalidateCachedDecor(id);
+            notifyChange(DecorEntry.buildChangeUri(id, DecorEntry.CHANGE_UPDATE));
+        }
+    }
+
+    /**
+     * Open the image of a single decor for reading, so it can be streamed instead of being
+     * copied through a Cursor. Images still stored as BLOBs are streamed through a pipe in chunks.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        DecorProviderMetrics.Entry metrics = mMetrics.get("open_file", match, targetName(match));
+        boolean failed = true;
+        try {
+            ParcelFileDescriptor file = openUri(match, uri, mode);
+            failed = false;
+            return file;
+        } finally {
+            metrics.record(start, 0, failed);
+        }
+    }
+
+    private ParcelFileDescriptor openUri(int match, Uri uri, String mode) throws FileNotFoundException {
+        switch (match) {
+            case DECOR_IMAGE:
+                if (!"r".equals(mode)) {
+                    throw new IllegalArgumentException("Decor images are read-only, cannot open " + uri
+                            + " in mode " + mode);
+                }
+                // The decor ID is the second to last segment: decors/#/image
+                String decorId = uri.getPathSegments().get(1);
+                SQLiteDatabase db = mDbHelper.getReadableDatabase();
+                String hash;
+                try {
+                    hash = DatabaseUtils.stringForQuery(db, "SELECT " + DecorEntry.COLUMN_DECOR_IMAGE_HASH +
+                            " FROM " + DecorEntry.TABLE_NAME + " WHERE " + DecorEntry._ID + "=?",
+                            new String[]{decorId});
+                } catch (SQLiteDoneException e) {
+                    throw new FileNotFoundException("No decor for " + uri);
+                }
+                if (hash == null) {
+                    // The image may still be a BLOB, not moved to the image store yet
+                    long id = Long.parseLong(decorId);
+                    if (DecorBlobInputStream.length(db, id) < 0) {
+                        throw new FileNotFoundException("No image for " + uri);
+                    }
+                    return openPipe(uri, id, mBlobImageWriter);
+                }
+                return ParcelFileDescriptor.open(mImageStore.getFile(hash), ParcelFileDescriptor.MODE_READ_ONLY);
+            case THUMBNAIL:
+                if (!"r".equals(mode)) {
+                    throw new IllegalArgumentException("Thumbnails are read-only, cannot open " + uri
+                            + " in mode " + mode);
+                }
+                // The URI has the form thumbnails/{image hash}/{size}
+                List<String> segments = uri.getPathSegments();
+                if (!segments.get(1).matches(IMAGE_HASH_PATTERN)) {
+                    throw new FileNotFoundException("Invalid image hash in " + uri);
+                }
+                File thumbnail = mThumbnailStore.getFile(segments.get(1), Integer.parseInt(segments.get(2)));
+                return ParcelFileDescriptor.open(thumbnail, ParcelFileDescriptor.MODE_READ_ONLY);
+            case EXPORT:
+                if (!"r".equals(mode)) {
+                    throw new IllegalArgumentException("Exports are read-only, cannot open " + uri
+                            + " in mode " + mode);
+                }
+                // The decors are written into a pipe by a background thread while the caller reads them
+                return openPipe(uri, getExportFormat(uri), mExportWriter);
+            default:
+                throw new FileNotFoundException("Cannot open unknown URI " + uri);
+        }
+    }
+
+    /**
+     * Prints the metrics of the provider calls, the statistics of the row cache and the slow
+     * queries, for
+     * {@code adb shell dumpsys activity provider DecorProvider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.printf("Row cache: hits=%d misses=%d evictions=%d size=%d/%d bytes%n",
+                mRowCache.hitCount(), mRowCache.missCount(), mRowCache.evictionCount(),
+                mRowCache.size(), mRowCache.maxSize());
+        mSlowQueryLog.dump(writer);
+    }
+
+    /**
+     * Returns the name of the given URI matcher code, for the metrics.
+     */
+    private static String targetName(int match) {
+        switch (match) {
+            case DECORS:
+                return "decors";
+            case DECOR_ID:
+                return "decor_id";
+            case DECOR_IMAGE:
+                return "decor_image";
+            case THUMBNAIL:
+                return "thumbnail";
+            case SEARCH:
+                return "search";
+            case EXPORT:
+                return "export";
+            case AGGREGATES:
+                return "aggregates";
+            case AGGREGATES_TOTAL:
+                return "aggregates_total";
+            case LOW_STOCK:
+                return "low_stock";
+            default:
+                return "unknown";
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -380,8 +1829,113 @@ public class DecorProvider extends ContentProvider {
                 return DecorEntry.CONTENT_LIST_TYPE;
             case DECOR_ID:
                 return DecorEntry.CONTENT_ITEM_TYPE;
+            case SEARCH:
+                return DecorEntry.CONTENT_LIST_TYPE;
+            case DECOR_IMAGE:
+                return DecorEntry.CONTENT_IMAGE_TYPE;
+            case THUMBNAIL:
+                return DecorEntry.CONTENT_THUMBNAIL_TYPE;
+            case EXPORT:
+                return getExportFormat(uri) == DecorImporter.Format.JSON ?
+                        DecorEntry.CONTENT_JSON_TYPE : DecorEntry.CONTENT_CSV_TYPE;
+            case AGGREGATES:
+                return DecorAggregateEntry.CONTENT_LIST_TYPE;
+            case AGGREGATES_TOTAL:
+                return DecorAggregateEntry.CONTENT_ITEM_TYPE;
+            case LOW_STOCK:
+                return DecorLowStockEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the data of a pipe opened by {@link #openPipe(Uri, Object, PipeWriter)}.
+     */
+    private interface PipeWriter<T> {
+        void writeToPipe(OutputStream out, Uri uri, T args) throws IOException;
+    }
+
+    /**
+     * Opens a pipe which the given writer fills on a background thread while the caller reads it.
+     * Unlike {@link #openPipeHelper}, a failure of the writer reaches the reader, which gets an
+     * IOException instead of the end of a truncated file. Before KitKat the pipe can only be
+     * closed, so the reader can't tell.
+     */
+    private <T> ParcelFileDescriptor openPipe(final Uri uri, final T args, final PipeWriter<T> writer)
+            throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? ParcelFileDescriptor.createReliablePipe() : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot open a pipe for " + uri);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ParcelFileDescriptor output = pipe[1];
+                try {
+                    // The stream leaves the descriptor open, so its status is sent by closing it
+                    writer.writeToPipe(new FileOutputStream(output.getFileDescriptor()), uri, args);
+                    output.close();
+                } catch (IOException | RuntimeException e) {
+                    // The reader closed the pipe before the end, or the data couldn't be read
+                    Log.w(LOG_TAG, "Writing " + uri + " failed", e);
+                    closeWithError(output, e);
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    private static void closeWithError(ParcelFileDescriptor output, Exception error) {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                output.closeWithError(error.toString());
+            } else {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot close pipe", e);
+        }
+    }
+
+    /**
+     * Writes the exports of the decors into the pipes opened by {@link #openFile}.
+     */
+    private final PipeWriter<DecorImporter.Format> mExportWriter = new PipeWriter<DecorImporter.Format>() {
+        @Override
+        public void writeToPipe(OutputStream out, Uri uri, DecorImporter.Format format) throws IOException {
+            boolean images = Boolean.parseBoolean(uri.getQueryParameter(DecorEntry.QUERY_PARAMETER_IMAGES));
+            new DecorExporter(mDbHelper.getReadableDatabase(), mImageStore).export(out, format, images);
+        }
+    };
+
+    /**
+     * Writes the images still stored as BLOBs into the pipes opened by {@link #openFile},
+     * a chunk at a time.
+     */
+    private final PipeWriter<Long> mBlobImageWriter = new PipeWriter<Long>() {
+        @Override
+        public void writeToPipe(OutputStream out, Uri uri, Long decorId) throws IOException {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            InputStream in = new DecorBlobInputStream(db, decorId, DecorBlobInputStream.length(db, decorId));
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        }
+    };
+
+    /**
+     * Changes made while a batch is running, which may only be published after it's committed.
+     */
+    private static class PendingChanges {
+        final Set<Uri> notifications = new LinkedHashSet<>();
+        final Set<String> unusedImages = new HashSet<>();
+        final Set<Long> invalidatedDecors = new HashSet<>();
+        boolean invalidateAllDecors;
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CrossProcessCursorWrapper;
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters of the calls to {@link DecorProvider}, kept per operation and target (the URI
+ * matcher code, like the one of "decor_id", or the called method): the number of calls and
+ * errors, the latency histogram, and the number of rows and bytes returned or written.
+ * <p>
+ * Recording takes a short lock per call and doesn't allocate after the first call of an
+ * operation and target, so it can stay enabled in production.
+ */
+public class DecorProviderMetrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets, in microseconds. The last bucket of the
+     * histogram counts the calls which took longer than the last bound.
+     */
+    public static final long[] LATENCY_BUCKETS_MICROS = {
+            250, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000, 1000000
+    };
+
+    /**
+     * Approximate size of a number in a cursor, in bytes
+     */
+    private static final int NUMBER_SIZE_BYTES = 8;
+
+    /**
+     * Counters of a single operation and target, guarded by themselves
+     */
+    static class Entry {
+        private final String mName;
+        private long mCallCount;
+        private long mErrorCount;
+        private long mRowCount;
+        private long mByteCount;
+        private long mTotalLatencyMicros;
+        private long mMaxLatencyMicros;
+        private final long[] mHistogram = new long[LATENCY_BUCKETS_MICROS.length + 1];
+
+        Entry(String name) {
+            mName = name;
+        }
+
+        /**
+         * Records a call which started at the given {@link System#nanoTime()} and returned
+         * or wrote the given number of rows.
+         */
+        synchronized void record(long startNanos, long rows, boolean failed) {
+            long latencyMicros = (System.nanoTime() - startNanos) / 1000;
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MICROS.length && latencyMicros > LATENCY_BUCKETS_MICROS[bucket]) {
+                bucket++;
+            }
+            mHistogram[bucket]++;
+            mCallCount++;
+            mTotalLatencyMicros += latencyMicros;
+            mMaxLatencyMicros = Math.max(mMaxLatencyMicros, latencyMicros);
+            if (failed) {
+                mErrorCount++;
+            } else {
+                mRowCount += rows;
+            }
+        }
+
+        /**
+         * Adds bytes returned by a call, which are only known once its cursor is read.
+         */
+        synchronized void addBytes(long bytes) {
+            mByteCount += bytes;
+        }
+
+        synchronized Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong(DecorEntry.EXTRA_CALL_COUNT, mCallCount);
+            bundle.putLong(DecorEntry.EXTRA_ERROR_COUNT, mErrorCount);
+            bundle.putLong(DecorEntry.EXTRA_ROW_COUNT, mRowCount);
+            bundle.putLong(DecorEntry.EXTRA_BYTE_COUNT, mByteCount);
+            bundle.putLong(DecorEntry.EXTRA_TOTAL_LATENCY_MICROS, mTotalLatencyMicros);
+            bundle.putLong(DecorEntry.EXTRA_MAX_LATENCY_MICROS, mMaxLatencyMicros);
+            bundle.putLongArray(DecorEntry.EXTRA_LATENCY_HISTOGRAM, mHistogram.clone());
+            return bundle;
+        }
+
+        synchronized void dump(PrintWriter writer) {
+            writer.printf("  %-24s calls=%d errors=%d rows=%d bytes=%d avg=%dus max=%dus histogram=%s%n",
+                    mName, mCallCount, mErrorCount, mRowCount, mByteCount,
+                    mCallCount == 0 ? 0 : mTotalLatencyMicros / mCallCount, mMaxLatencyMicros,
+                    Arrays.toString(mHistogram));
+        }
+    }
+
+    /**
+     * Counters by operation and target code, guarded by this object. The operations are
+     * constant strings, so looking them up doesn't build any key.
+     */
+    private final Map<String, SparseArray<Entry>> mEntries = new HashMap<>();
+
+    /**
+     * Returns the counters of the given operation on the given target.
+     *
+     * @param target     code of the target, like the URI matcher code
+     * @param targetName name of the target, only used when its counters are created
+     */
+    synchronized Entry get(String operation, int target, String targetName) {
+        SparseArray<Entry> targets = mEntries.get(operation);
+        if (targets == null) {
+            targets = new SparseArray<>();
+            mEntries.put(operation, targets);
+        }
+        Entry entry = targets.get(target);
+        if (entry == null) {
+            entry = new Entry(operation + ":" + targetName);
+            targets.put(target, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns all counters sorted by their names.
+     */
+    private synchronized Map<String, Entry> sortedEntries() {
+        Map<String, Entry> sorted = new TreeMap<>();
+        for (SparseArray<Entry> targets : mEntries.values()) {
+            for (int i = 0; i < targets.size(); i++) {
+                sorted.put(targets.valueAt(i).mName, targets.valueAt(i));
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns a cursor which adds the bytes read from the given one to the given counters
+     * once it's closed.
+     */
+    static Cursor meter(Cursor cursor, Entry entry) {
+        return new MeteredCursor(cursor, entry);
+    }
+
+    /**
+     * Returns the counters as a bundle holding a bundle per operation and target, keyed like
+     * "query:decor_id", and the bounds of the histogram buckets.
+     */
+    public Bundle toBundle() {
+        Bundle metrics = new Bundle();
+        metrics.putLongArray(DecorEntry.EXTRA_LATENCY_BUCKETS_MICROS, LATENCY_BUCKETS_MICROS.clone());
+        for (Map.Entry<String, Entry> entry : sortedEntries().entrySet()) {
+            metrics.putBundle(entry.getKey(), entry.getValue().toBundle());
+        }
+        return metrics;
+    }
+
+    /**
+     * Prints the counters, one operation and target per line.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Metrics (latency histogram bounds in us: " + Arrays.toString(LATENCY_BUCKETS_MICROS) + "):");
+        for (Entry entry : sortedEntries().values()) {
+            entry.dump(writer);
+        }
+    }
+
+    /**
+     * Cursor counting the bytes of the values read from it, either one by one in the same
+     * process, or by whole windows sent to another process. BLOBs are only counted when they're
+     * read one by one, as a window doesn't tell their sizes without copying them; the provider
+     * serves the images as files anyway.
+     */
+    private static class MeteredCursor extends CrossProcessCursorWrapper {
+
+        private final Entry mEntry;
+        private long mBytes;
+        private CharArrayBuffer mBuffer;
+
+        /**
+         * Window and rows counted last, so a window handed out again isn't counted twice
+         */
+        private CursorWindow mCountedWindow;
+        private int mCountedStart;
+        private int mCountedRows;
+
+        MeteredCursor(Cursor cursor, Entry entry) {
+            super(cursor);
+            mEntry = entry;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            String value = super.getString(columnIndex);
+            mBytes += value == null ? 0 : 2 * value.length();
+            return value;
+        }
+
+        @Override
+        public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+            super.copyStringToBuffer(columnIndex, buffer);
+            mBytes += 2 * buffer.sizeCopied;
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            byte[] value = super.getBlob(columnIndex);
+            mBytes += value == null ? 0 : value.length;
+            return value;
+        }
+
+        @Override
+        public short getShort(int columnIndex) {
+            mBytes += NUMBER_SIZE_BYTES;
+            return super.getShort(columnIndex);
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            mBytes += NUMBER_SIZE_BYTES;
+            return super.getInt(columnIndex);
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            mBytes += NUMBER_SIZE_BYTES;
+            return super.getLong(columnIndex);
+        }
+
+        @Override
+        public float getFloat(int columnIndex) {
+            mBytes += NUMBER_SIZE_BYTES;
+            return super.getFloat(columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            mBytes += NUMBER_SIZE_BYTES;
+            return super.getDouble(columnIndex);
+        }
+
+        /**
+         * Counts the rows of the window of the wrapped cursor, which is sent as it is to another
+         * process, once the cursor filled it.
+         */
+        @Override
+        public CursorWindow getWindow() {
+            CursorWindow window = super.getWindow();
+            if (window != null && (window != mCountedWindow || window.getStartPosition() != mCountedStart
+                    || window.getNumRows() != mCountedRows)) {
+                mCountedWindow = window;
+                mCountedStart = window.getStartPosition();
+                mCountedRows = window.getNumRows();
+                countWindow(window);
+            }
+            return window;
+        }
+
+        /**
+         * Counts the rows copied into the window of another process, for cursors without
+         * a window of their own.
+         */
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            super.fillWindow(position, window);
+            countWindow(window);
+        }
+
+        private void countWindow(CursorWindow window) {
+            if (mBuffer == null) {
+                mBuffer = new CharArrayBuffer(64);
+            }
+            int end = window.getStartPosition() + window.getNumRows();
+            for (int row = window.getStartPosition(); row < end; row++) {
+                for (int column = 0; column < window.getNumColumns(); column++) {
+                    switch (window.getType(row, column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            mBytes += NUMBER_SIZE_BYTES;
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            window.copyStringToBuffer(row, column, mBuffer);
+                            mBytes += 2 * mBuffer.sizeCopied;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!isClosed()) {
+                mEntry.addBytes(mBytes);
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+/**
+ * In-memory cache of single decor rows, keyed by their IDs and bounded by the approximate
+ * number of bytes the rows take on the heap. The least recently used rows are evicted first.
+ * <p>
+ * Rows read from the database are only cached if no decor was invalidated since the read
+ * started, so a read racing with a write can't put back a row the write just replaced.
+ */
+public class DecorRowCache {
+
+    /**
+     * Approximate heap size of an object header and reference, used to estimate the row sizes
+     */
+    private static final int OBJECT_OVERHEAD_BYTES = 16;
+
+    /**
+     * A single cached row: the values of all columns of the decors table
+     */
+    private static class Row {
+        final String[] columns;
+        final Object[] values;
+        final int sizeBytes;
+
+        Row(String[] columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+            this.sizeBytes = estimateSize(values);
+        }
+    }
+
+    private final LruCache<Long, Row> mRows;
+
+    /**
+     * Incremented by every invalidation. Guarded by this cache.
+     */
+    private long mGeneration;
+
+    /**
+     * Constructs a new instance of {@link DecorRowCache}.
+     *
+     * @param maxSizeBytes maximum approximate heap size of the cached rows
+     */
+    public DecorRowCache(int maxSizeBytes) {
+        mRows = new LruCache<Long, Row>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(Long id, Row row) {
+                return row.sizeBytes;
+            }
+        };
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put(long, Cursor, long, String[])} for a row
+     * which is about to be read.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns a cursor of the cached decor with the given ID, with the given columns
+     * (all of them if null), or null if the decor is not cached.
+     *
+     * @throws IllegalArgumentException if a column is unknown
+     */
+    public Cursor get(long id, String[] projection) {
+        Row row = mRows.get(id);
+        return row == null ? null : toCursor(row, projection);
+    }
+
+    /**
+     * Caches the current row of the given cursor, which holds all columns of the decor with the
+     * given ID, and returns a cursor of it with the given columns (all of them if null).
+     * The row is not cached if any decor was invalidated since the given generation.
+     *
+     * @throws IllegalArgumentException if a column is unknown
+     */
+    public Cursor put(long id, Cursor cursor, long generation, String[] projection) {
+        Object[] values = new Object[cursor.getColumnCount()];
+        for (int i = 0; i < values.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    values[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    values[i] = null;
+            }
+        }
+        Row row = new Row(cursor.getColumnNames(), values);
+
+        synchronized (this) {
+            // A single huge row (like a legacy image not moved to the store yet) would evict all others
+            if (generation == mGeneration && row.sizeBytes <= mRows.maxSize() / 8) {
+                mRows.put(id, row);
+            }
+        }
+        return toCursor(row, projection);
+    }
+
+    /**
+     * Removes the decor with the given ID from the cache.
+     */
+    public synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Removes all decors from the cache.
+     */
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    public int hitCount() {
+        return mRows.hitCount();
+    }
+
+    public int missCount() {
+        return mRows.missCount();
+    }
+
+    public int evictionCount() {
+        return mRows.evictionCount();
+    }
+
+    /**
+     * Returns the approximate heap size of the cached rows, in bytes.
+     */
+    public int size() {
+        return mRows.size();
+    }
+
+    public int maxSize() {
+        return mRows.maxSize();
+    }
+
+    private static Cursor toCursor(Row row, String[] projection) {
+        if (projection == null) {
+            projection = row.columns;
+        }
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            values[i] = row.values[columnIndex(row.columns, projection[i])];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    private static int columnIndex(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + column);
+    }
+
+    private static int estimateSize(Object[] values) {
+        int size = OBJECT_OVERHEAD_BYTES * (values.length + 1);
+        for (Object value : values) {
+            if (value instanceof String) {
+                size += OBJECT_OVERHEAD_BYTES + 2 * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += OBJECT_OVERHEAD_BYTES + ((byte[]) value).length;
+            } else if (value != null) {
+                size += OBJECT_OVERHEAD_BYTES;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.android.decorsinventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Log of the provider queries which took longer than a threshold, with their SQL, duration and
+ * query plan. Only the most recent queries are kept, in a ring buffer, so the log never grows.
+ * The plan is only captured for the slow queries, the others cost a comparison.
+ * <p>
+ * The arguments hold user data like searched texts and supplier emails, so they're only logged
+ * (and kept for the dump) when debug logging is enabled for the tag of this class, e.g. with
+ * {@code adb shell setprop log.tag.DecorSlowQueryLog DEBUG}.
+ */
+public class DecorSlowQueryLog {
+
+    private static final String LOG_TAG = DecorSlowQueryLog.class.getSimpleName();
+
+    /**
+     * A single slow query
+     */
+    private static class Entry {
+        final long timeMillis;
+        final String sql;
+        /**
+         * Arguments of the query, null unless debug logging was enabled
+         */
+        final String[] args;
+        final long durationMicros;
+        final String plan;
+
+        Entry(long timeMillis, String sql, String[] args, long durationMicros, String plan) {
+            this.timeMillis = timeMillis;
+            this.sql = sql;
+            this.args = args;
+            this.durationMicros = durationMicros;
+            this.plan = plan;
+        }
+    }
+
+    /**
+     * Logged queries, the oldest one is overwritten first. Guarded by this log.
+     */
+    private final Entry[] mEntries;
+
+    /**
+     * Index of the next entry to write, guarded by this log
+     */
+    private int mNext;
+
+    /**
+     * Number of slow queries logged so far, guarded by this log
+     */
+    private long mCount;
+
+    private volatile long mThresholdMicros;
+
+    /**
+     * Constructs a new instance of {@link DecorSlowQueryLog}.
+     *
+     * @param capacity        number of the most recent slow queries kept
+     * @param thresholdMillis duration above which a query is logged
+     */
+    public DecorSlowQueryLog(int capacity, long thresholdMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive number");
+        }
+        mEntries = new Entry[capacity];
+        setThresholdMillis(thresholdMillis);
+    }
+
+    /**
+     * Sets the duration above which the queries are logged.
+     *
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Threshold cannot be negative number");
+        }
+        mThresholdMicros = thresholdMillis * 1000;
+    }
+
+    public long getThresholdMillis() {
+        return mThresholdMicros / 1000;
+    }
+
+    /**
+     * Logs the given query, run on the given database since the given {@link System#nanoTime()},
+     * if it took longer than the threshold.
+     */
+    public void onQuery(SQLiteDatabase database, String sql, String[] args, long startNanos) {
+        long durationMicros = (System.nanoTime() - startNanos) / 1000;
+        if (durationMicros <= mThresholdMicros) {
+            return;
+        }
+
+        String plan = explain(database, sql, args);
+        boolean withArgs = args != null && Log.isLoggable(LOG_TAG, Log.DEBUG);
+        Log.w(LOG_TAG, "Query took " + durationMicros / 1000 + " ms: " + sql
+                + (withArgs ? " " + Arrays.toString(args) : "") + "\n" + plan);
+        Entry entry = new Entry(System.currentTimeMillis(), sql,
+                withArgs ? args.clone() : null, durationMicros, plan);
+        synchronized (this) {
+            mEntries[mNext] = entry;
+            mNext = (mNext + 1) % mEntries.length;
+            mCount++;
+        }
+    }
+
+    /**
+     * Returns the query plan of the given query, one step per line.
+     */
+    private static String explain(SQLiteDatabase database, String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                int detail = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    if (plan.length() != 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException | IllegalArgumentException e) {
+            // The query already ran, so this should never happen; the plan is just missing then
+            plan.append("(no plan: ").append(e.getMessage()).append(')');
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Prints the logged queries, the most recent first.
+     */
+    public void dump(PrintWriter writer) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        synchronized (this) {
+            writer.println("Slow queries (over " + getThresholdMillis() + " ms, " + mCount
+                    + " logged, last " + mEntries.length + " kept):");
+            for (int i = 1; i <= mEntries.length; i++) {
+                Entry entry = mEntries[(mNext - i + mEntries.length) % mEntries.length];
+                if (entry == null) {
+                    break;
+                }
+                writer.printf(Locale.US, "  %s %d.%03d ms: %s%s%n", format.format(new Date(entry.timeMillis)),
+                        entry.durationMicros / 1000, entry.durationMicros % 1000, entry.sql,
+                        entry.args == null ? "" : " " + Arrays.toString(entry.args));
+                for (String step : entry.plan.split("\n")) {
+                    writer.println("    " + step);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Store for small thumbnails of the decor images, kept apart from the master images in
+ * {@link DecorImageStore}.
+ * <p>
+ * Thumbnails are generated for every size in {@link DecorEntry#THUMBNAIL_SIZES} and named after
+ * the hash of the master image, so they're shared by all decors with the same image.
+ */
+public class DecorThumbnailStore {
+
+    /**
+     * Name of the directory (inside the app's files directory) that holds the thumbnails
+     */
+    private static final String DIRECTORY_NAME = "decor_thumbnails";
+
+    /**
+     * Suffix of files which are still being written
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Quality of the encoded thumbnails. They're small, so a lower quality is not noticeable.
+     */
+    private static final int JPEG_QUALITY = 85;
+
+    /**
+     * Directory that holds the thumbnails, one subdirectory per size
+     */
+    private final File mDirectory;
+
+    /**
+     * Store of the master images the thumbnails are generated from
+     */
+    private final DecorImageStore mImageStore;
+
+    /**
+     * Constructs a new instance of {@link DecorThumbnailStore}.
+     *
+     * @param context    of the app
+     * @param imageStore store of the master images
+     */
+    public DecorThumbnailStore(Context context, DecorImageStore imageStore) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY_NAME);
+        mImageStore = imageStore;
+    }
+
+    /**
+     * Returns the file of the thumbnail of the given size for the image with the given hash.
+     * The file may not exist.
+     */
+    public File getFile(String hash, int size) {
+        return new File(new File(mDirectory, String.valueOf(size)), hash);
+    }
+
+    /**
+     * Returns whether thumbnails of all sizes exist for the image with the given hash.
+     */
+    public boolean exists(String hash) {
+        for (int size : DecorEntry.THUMBNAIL_SIZES) {
+            if (!getFile(hash, size).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generate the missing thumbnails of the image with the given hash. The master image is
+     * decoded only once, already subsampled close to the largest thumbnail size.
+     * This is slow, so it should never be called on the main thread.
+     *
+     * @throws IOException if the master image cannot be read or a thumbnail cannot be written
+     */
+    public void generate(String hash) throws IOException {
+        if (exists(hash)) {
+            return;
+        }
+
+        File imageFile = mImageStore.getFile(hash);
+        int largestSize = 0;
+        for (int size : DecorEntry.THUMBNAIL_SIZES) {
+            largestSize = Math.max(largestSize, size);
+        }
+
+        // Read only the dimensions first, to pick how much to subsample the image while decoding
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imageFile.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode image " + hash);
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, largestSize);
+        options.inJustDecodeBounds = false;
+
+        Bitmap image = BitmapFactory.decodeFile(imageFile.getPath(), options);
+        if (image == null) {
+            throw new IOException("Cannot decode image " + hash);
+        }
+        try {
+            for (int size : DecorEntry.THUMBNAIL_SIZES) {
+                writeThumbnail(image, hash, size);
+            }
+        } finally {
+            image.recycle();
+        }
+    }
+
+    /**
+     * Remove all thumbnails of the image with the given hash.
+     */
+    public void delete(String hash) {
+        for (int size : DecorEntry.THUMBNAIL_SIZES) {
+            getFile(hash, size).delete();
+        }
+    }
+
+    /**
+     * Scale the image so its longer side equals the given size and write it as the thumbnail.
+     */
+    private void writeThumbnail(Bitmap image, String hash, int size) throws IOException {
+        File file = getFile(hash, size);
+        if (file.exists()) {
+            return;
+        }
+
+        float scale = Math.min(1f, (float) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, Math.round(image.getWidth() * scale));
+        int height = Math.max(1, Math.round(image.getHeight() * scale));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(image, width, height, true);
+
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create thumbnail directory " + directory);
+        }
+
+        // Write to a temporary file first, so a half-written thumbnail is never served
+        File tempFile = new File(directory, hash + TEMP_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream);
+        } finally {
+            outputStream.close();
+            if (thumbnail != image) {
+                thumbnail.recycle();
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot move thumbnail to " + file);
+        }
+    }
+
+    /**
+     * Returns the largest power of 2 by which the image can be subsampled while its longer
+     * side stays at least the given size.
+     */
+    private static int calculateInSampleSize(int width, int height, int size) {
+        int longerSide = Math.max(width, height);
+        int inSampleSize = 1;
+        while (longerSide / (inSampleSize * 2) >= size) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.android.decorsinventory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link DecorImageLoader} subsamples images as much as possible while they still
+ * cover the view.
+ */
+public class DecorImageLoaderTest {
+
+    @Test
+    public void keepsImagesSmallerThanTheView() {
+        assertEquals(1, DecorImageLoader.calculateInSampleSize(640, 480, 1080, 600));
+        assertEquals(1, DecorImageLoader.calculateInSampleSize(1080, 600, 1080, 600));
+    }
+
+    @Test
+    public void subsamplesByPowersOfTwo() {
+        assertEquals(2, DecorImageLoader.calculateInSampleSize(2160, 1200, 1080, 600));
+        assertEquals(2, DecorImageLoader.calculateInSampleSize(4000, 3000, 1080, 600));
+        assertEquals(4, DecorImageLoader.calculateInSampleSize(4320, 2400, 1080, 600));
+    }
+
+    @Test
+    public void coversTheViewOnBothSides() {
+        // A panorama is only subsampled as long as it's still as high as the view
+        assertEquals(1, DecorImageLoader.calculateInSampleSize(8000, 1000, 1080, 600));
+        assertEquals(2, DecorImageLoader.calculateInSampleSize(1200, 9000, 600, 600));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyViews() {
+        DecorImageLoader.calculateInSampleSize(640, 480, 0, 600);
+    }
+}
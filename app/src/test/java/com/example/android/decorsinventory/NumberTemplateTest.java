@@ -0,0 +1,56 @@
+package com.example.android.decorsinventory;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link NumberTemplate} formats the catalog strings like {@link String#format}.
+ * That binding the list items doesn't allocate is checked by the instrumented DecorAdapterBindTest.
+ */
+public class NumberTemplateTest {
+
+    private static final String PRICE_TEMPLATE = "%1$,.2f PLN";
+    private static final String QUANTITY_TEMPLATE = "Qty: %1$,d";
+
+    /**
+     * Locales with various separators, and with digits other than the ASCII ones
+     */
+    private static final Locale[] LOCALES = {Locale.US, new Locale("pl", "PL"), Locale.GERMANY,
+            new Locale("ar", "EG"), new Locale("fa", "IR")};
+
+    @Test
+    public void formatsPricesLikeStringFormat() {
+        double[] prices = {0, 0.5, 0.125, 1.005, 2.675, 8.5, 150.82, 269.59499999999997, 999.995, 1234.5,
+                1234567.891, -3.5, -0.001, 9.99999999999995e12, 1e17, -1e300, Double.MAX_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY};
+        for (Locale locale : LOCALES) {
+            NumberTemplate template = new NumberTemplate(PRICE_TEMPLATE, locale);
+            char[] buffer = new char[template.getMaxLength()];
+            for (double price : prices) {
+                assertEquals(String.format(locale, PRICE_TEMPLATE, price),
+                        new String(buffer, 0, template.format(price, buffer)));
+            }
+        }
+    }
+
+    @Test
+    public void formatsQuantitiesLikeStringFormat() {
+        long[] quantities = {0, 7, 999, 1000, 1234567, -12, Long.MAX_VALUE};
+        for (Locale locale : LOCALES) {
+            NumberTemplate template = new NumberTemplate(QUANTITY_TEMPLATE, locale);
+            char[] buffer = new char[template.getMaxLength()];
+            for (long quantity : quantities) {
+                assertEquals(String.format(locale, QUANTITY_TEMPLATE, quantity),
+                        new String(buffer, 0, template.format(quantity, buffer)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTemplateWithoutNumber() {
+        new NumberTemplate("%1$s PLN", Locale.US);
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.android.decorsinventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.decorsinventory.data.DecorContract.DecorEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of the {@link DecorProvider} operations at several table sizes.
+ * Every scenario is measured against a reference scenario running the same statement straight
+ * on the database in the same run, so the ratio of the two numbers doesn't depend on the machine.
+ * <p>
+ * The benchmark only runs with {@code ./gradlew testDebugUnitTest -Pbenchmark}, and fails when
+ * the ratio of a scenario is lower than its baseline in
+ * {@code src/test/resources/decor_provider_benchmark.properties} by more than the threshold
+ * ({@code -PbenchmarkThreshold=0.25} by default), or lower than {@link #DEFAULT_MIN_RATIO}
+ * when it has no baseline. {@code -PrecordBenchmarkBaseline} stores the measured ratios as
+ * the new baseline instead.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class DecorProviderBenchmark {
+
+    static final String PROPERTY_BASELINE = "decors.benchmark.baseline";
+    static final String PROPERTY_THRESHOLD = "decors.benchmark.threshold";
+    static final String PROPERTY_RECORD = "decors.benchmark.record";
+    static final String PROPERTY_SIZES = "decors.benchmark.sizes";
+
+    private static final String DEFAULT_BASELINE = "src/test/resources/decor_provider_benchmark.properties";
+    private static final double DEFAULT_THRESHOLD = 0.25;
+    private static final String DEFAULT_SIZES = "1000,10000,100000";
+
+    /**
+     * Lowest ratio of a scenario without a baseline: the provider may take twice as long as
+     * the database, for validation, notifications and metrics, but not more
+     */
+    private static final double DEFAULT_MIN_RATIO = 0.5;
+
+    /**
+     * Number of decors read again and again by the scenario of the row cache
+     */
+    private static final int CACHED_DECORS = 10;
+
+    /**
+     * Number of operations measured in a round of a single-row scenario
+     */
+    private static final int OPERATIONS = 250;
+
+    /**
+     * Number of full-list queries measured in a round
+     */
+    private static final int LIST_QUERIES = 3;
+
+    /**
+     * Unmeasured rounds letting the JIT compile the code paths, then measured rounds,
+     * of which the fastest counts
+     */
+    private static final int WARM_UP_ROUNDS = 1;
+    private static final int MEASURED_ROUNDS = 3;
+
+    /**
+     * Number of rows inserted by a single bulk insert while filling the table
+     */
+    private static final int FILL_CHUNK_SIZE = 1000;
+
+    private static final String[] LIST_PROJECTION = {
+            DecorEntry._ID,
+            DecorEntry.COLUMN_DECOR_NAME,
+            DecorEntry.COLUMN_DECOR_PRICE,
+            DecorEntry.COLUMN_DECOR_QUANTITY
+    };
+
+    /**
+     * An operation of a scenario, run {@link #OPERATIONS} times in a round
+     */
+    private interface Operation {
+        void run(int index);
+    }
+
+    private final Context mContext = RuntimeEnvironment.application;
+    private final Random mRandom = new Random(42);
+    private DecorProvider mProvider;
+    private SQLiteDatabase mDatabase;
+
+    @Test
+    public void providerDoesNotRegress() throws IOException {
+        Map<String, Double> results = new TreeMap<>();
+        for (String size : System.getProperty(PROPERTY_SIZES, DEFAULT_SIZES).split(",")) {
+            measure(Integer.parseInt(size.trim()), results);
+        }
+
+        File baselineFile = new File(System.getProperty(PROPERTY_BASELINE, DEFAULT_BASELINE));
+        if (Boolean.getBoolean(PROPERTY_RECORD)) {
+            storeBaseline(baselineFile, results);
+            return;
+        }
+
+        Properties baseline = loadBaseline(baselineFile);
+        double threshold = Double.parseDouble(
+                System.getProperty(PROPERTY_THRESHOLD, String.valueOf(DEFAULT_THRESHOLD)));
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            String baselineValue = baseline.getProperty(result.getKey());
+            double minimum = baselineValue == null
+                    ? DEFAULT_MIN_RATIO : Double.parseDouble(baselineValue) * (1 - threshold);
+            System.out.printf(Locale.US, "%-28s ratio %6.3f (%s)%n", result.getKey(), result.getValue(),
+                    baselineValue == null ? "no baseline" : "baseline " + baselineValue);
+            if (result.getValue() < minimum) {
+                regressions.add(String.format(Locale.US, "%s: ratio %.3f, minimum %.3f",
+                        result.getKey(), result.getValue(), minimum));
+            }
+        }
+        assertTrue("Slower than the database reference by more than allowed: " + regressions,
+                regressions.isEmpty());
+    }
+
+    /**
+     * Measures all scenarios on a table with the given number of decors and adds the ratios of
+     * their operations per second to the ones of their reference scenarios to the results,
+     * keyed by scenario and size.
+     */
+    private void measure(int size, Map<String, Double> results) {
+        mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        mProvider = new DecorProvider();
+        mProvider.attachInfo(mContext, null);
+        DecorDbHelper dbHelper = new DecorDbHelper(mContext);
+        try {
+            fill(size);
+            mDatabase = dbHelper.getWritableDatabase();
+            final List<Long> ids = queryIds();
+            // The decors inserted by the insert scenarios are removed by the delete scenarios,
+            // so the other scenarios always see the same table size
+            final List<Long> insertedIds = new ArrayList<>();
+            final List<Long> referenceInsertedIds = new ArrayList<>();
+
+            compare(results, "insert." + size, new Operation() {
+                @Override
+                public void run(int index) {
+                    Uri uri = mProvider.insert(DecorEntry.CONTENT_URI, newDecor(insertedIds.size()));
+                    insertedIds.add(ContentUris.parseId(uri));
+                }
+            }, new Operation() {
+                @Override
+                public void run(int index) {
+                    referenceInsertedIds.add(mDatabase.insert(DecorEntry.TABLE_NAME, null,
+                            newDecor(referenceInsertedIds.size())));
+                }
+            }, OPERATIONS);
+
+            compare(results, "update." + size, new Operation() {
+                @Override
+                public void run(int index) {
+                    ContentValues values = new ContentValues();
+                    values.put(DecorEntry.COLUMN_DECOR_QUANTITY, index % 50);
+                    mProvider.update(randomDecorUri(ids), values, null, null);
+                }
+            }, new Operation() {
+                @Override
+                public void run(int index) {
+                    ContentValues values = new ContentValues();
+                    values.put(DecorEntry.COLUMN_DECOR_QUANTITY, index % 50);
+                    mDatabase.update(DecorEntry.TABLE_NAME, values, DecorEntry._ID + "=?",
+                            new String[]{String.valueOf(randomDecorId(ids))});
+                }
+            }, OPERATIONS);
+
+            // The row cache would turn most reads into hits, depending on the table size,
+            // so the reads from the database and the hits are measured separately
+            Operation singleReference = new Operation() {
+                @Override
+                public void run(int index) {
+                    readAll(mDatabase.query(DecorEntry.TABLE_NAME, null, DecorEntry._ID + "=?",
+                            new String[]{String.valueOf(randomDecorId(ids))}, null, null, null));
+                }
+            };
+            mProvider.setRowCacheEnabled(false);
+            try {
+                compare(results, "query_single." + size, new Operation() {
+                    @Override
+                    public void run(int index) {
+                        readAll(mProvider.query(randomDecorUri(ids), null, null, null, null));
+                    }
+                }, singleReference, OPERATIONS);
+            } finally {
+                mProvider.setRowCacheEnabled(true);
+            }
+            compare(results, "query_single_cached." + size, new Operation() {
+                @Override
+                public void run(int index) {
+                    readAll(mProvider.query(ContentUris.withAppendedId(DecorEntry.CONTENT_URI,
+                            ids.get(index % CACHED_DECORS)), null, null, null, null));
+                }
+            }, singleReference, OPERATIONS);
+
+            compare(results, "query_list." + size, new Operation() {
+                @Override
+                public void run(int index) {
+                    readAll(mProvider.query(DecorEntry.CONTENT_URI, LIST_PROJECTION, null, null,
+                            DecorEntry.PAGE_SORT_ORDER));
+                }
+            }, new Operation() {
+                @Override
+                public void run(int index) {
+                    readAll(mDatabase.query(DecorEntry.TABLE_NAME, LIST_PROJECTION, null, null, null, null,
+                            DecorEntry.PAGE_SORT_ORDER));
+                }
+            }, LIST_QUERIES);
+
+            Collections.shuffle(insertedIds, mRandom);
+            Collections.shuffle(referenceInsertedIds, mRandom);
+            compare(results, "delete." + size, new Operation() {
+                @Override
+                public void run(int index) {
+                    long id = insertedIds.remove(insertedIds.size() - 1);
+                    mProvider.delete(ContentUris.withAppendedId(DecorEntry.CONTENT_URI, id), null, null);
+                }
+            }, new Operation() {
+                @Override
+                public void run(int index) {
+                    long id = referenceInsertedIds.remove(referenceInsertedIds.size() - 1);
+                    mDatabase.delete(DecorEntry.TABLE_NAME, DecorEntry._ID + "=?",
+                            new String[]{String.valueOf(id)});
+                }
+            }, OPERATIONS);
+        } finally {
+            dbHelper.close();
+            mProvider.shutdown();
+            mContext.deleteDatabase(DecorDbHelper.DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Measures the given scenario and its reference scenario, and adds the ratio of their
+     * operations per second to the results.
+     */
+    private static void compare(Map<String, Double> results, String key, Operation scenario,
+                                Operation reference, int operations) {
+        double opsPerSecond = measure(scenario, operations);
+        double referenceOpsPerSecond = measure(reference, operations);
+        System.out.printf(Locale.US, "%-28s %12.1f ops/s (database %.1f ops/s)%n",
+                key, opsPerSecond, referenceOpsPerSecond);
+        results.put(key, opsPerSecond / referenceOpsPerSecond);
+    }
+
+    /**
+     * Runs the warm-up and measured rounds of the given operation and returns the number of
+     * operations per second of the fastest round.
+     */
+    private static double measure(Operation operation, int operations) {
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < WARM_UP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                operation.run(i);
+            }
+            long nanos = System.nanoTime() - start;
+            if (round >= WARM_UP_ROUNDS) {
+                bestNanos = Math.min(bestNanos, nanos);
+            }
+        }
+        return operations * 1e9 / Math.max(bestNanos, 1);
+    }
+
+    private void fill(int size) {
+        for (int start = 0; start < size; start += FILL_CHUNK_SIZE) {
+            ContentValues[] rows = new ContentValues[Math.min(FILL_CHUNK_SIZE, size - start)];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = newDecor(start + i);
+            }
+            mProvider.bulkInsert(DecorEntry.CONTENT_URI, rows);
+        }
+    }
+
+    private List<Long> queryIds() {
+        Cursor cursor = mProvider.query(DecorEntry.CONTENT_URI, new String[]{DecorEntry._ID},
+                null, null, null);
+        List<Long> ids = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private Uri randomDecorUri(List<Long> ids) {
+        return ContentUris.withAppendedId(DecorEntry.CONTENT_URI, randomDecorId(ids));
+    }
+
+    private long randomDecorId(List<Long> ids) {
+        return ids.get(mRandom.nextInt(ids.size()));
+    }
+
+    /**
+     * Moves through all rows of the cursor, so they're actually read from the database.
+     */
+    private static void readAll(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Builds a valid set of decor values. The given number makes every decor distinct.
+     */
+    private static ContentValues newDecor(int number) {
+        ContentValues values = new ContentValues();
+        values.put(DecorEntry.COLUMN_DECOR_NAME, "Decor " + number);
+        values.put(DecorEntry.COLUMN_DECOR_DESCRIPTION, "Description of decor " + number);
+        values.put(DecorEntry.COLUMN_DECOR_MATERIAL, number % 5);
+        values.put(DecorEntry.COLUMN_DECOR_HEIGHT, number % 100);
+        values.put(DecorEntry.COLUMN_DECOR_PRICE, (number % 1000) / 10d);
+        values.put(DecorEntry.COLUMN_DECOR_QUANTITY, number % 50);
+        values.put(DecorEntry.COLUMN_DECOR_SUPPLIER_NAME, "Supplier " + (number % 20));
+        values.put(DecorEntry.COLUMN_DECOR_SUPPLIER_EMAIL, "supplier" + (number % 20) + "@example.com");
+        return values;
+    }
+
+    private static Properties loadBaseline(File file) throws IOException {
+        Properties baseline = new Properties();
+        if (file.exists()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return baseline;
+    }
+
+    private static void storeBaseline(File file, Map<String, Double> results) throws IOException {
+        Properties baseline = loadBaseline(file);
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            baseline.setProperty(result.getKey(), String.format(Locale.US, "%.3f", result.getValue()));
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            baseline.store(out, "Ratios of DecorProvider to database operations per second, "
+                    + "recorded by DecorProviderBenchmark");
+        } finally {
+            out.close();
+        }
+    }
+}